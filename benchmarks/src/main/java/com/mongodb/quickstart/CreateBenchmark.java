@@ -0,0 +1,122 @@
+package com.mongodb.quickstart;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+One benchmark per Create stage: the two source scans and every builder, each writing into its own collection of
+a staging build that is never swapped in. The collection a builder writes is dropped before every invocation,
+outside the measured time. scanRecordings is the Video_Recordings pass without writing Dim_Recordings,
+createVideoRecordingCollection the same pass writing it. createFactTable resolves against dimensions built once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CreateBenchmark {
+    // benchmark method -> the staging collection it writes
+    private static final Map<String, String> TARGETS = Map.of(
+            "createVideoRecordingCollection", "Dim_Recordings",
+            "createCategoriesCollection", "Dim_Categories",
+            "createActorsCollection", "Dim_Actors",
+            "createRatingsCollection", "Dim_Ratings",
+            "createDirectorCollection", "Dim_Directors",
+            "createFactTable", "Fact_Collection");
+
+    @Param({"1000", "10000"})
+    public int recordings;
+
+    private BenchmarkFixture fixture;
+    private StagedBuild target;
+    private SourceScan.Recordings recordingSource;
+    private SourceScan.Actors actorSource;
+    private final Map<String, Map<?, ?>> dimensionKeys = new HashMap<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new BenchmarkFixture(recordings);
+        actorSource = scanActors();
+        target = new StagedBuild(fixture.star, "benchmark");
+        target.discard();
+        recordingSource = Create.createVideoRecordingCollection(fixture.source, target);
+        dimensionKeys.put("Dim_Categories", Create.createCategoriesCollection(fixture.source, target));
+        dimensionKeys.put("Dim_Actors", Create.createActorsCollection(actorSource, target));
+        dimensionKeys.put("Dim_Ratings", Create.createRatingsCollection(recordingSource, target));
+        dimensionKeys.put("Dim_Directors", Create.createDirectorCollection(recordingSource, target));
+        StarIndexes.build(target::collection, StagedBuild.DIMENSIONS);
+    }
+
+    @Setup(Level.Invocation)
+    public void dropTarget(BenchmarkParams params) {
+        String benchmark = params.getBenchmark().substring(params.getBenchmark().lastIndexOf('.') + 1);
+        String collection = TARGETS.get(benchmark);
+        if (collection != null) {
+            target.collection(collection).drop();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        target.discard();
+        fixture.close();
+    }
+
+    @Benchmark
+    public SourceScan.Recordings scanRecordings() {
+        return SourceScan.scanRecordings(fixture.source.getCollection("Video_Recordings"), row -> {},
+                Create.recordingAttributeFields(), false);
+    }
+
+    @Benchmark
+    public SourceScan.Actors scanActors() {
+        return SourceScan.scanActors(fixture.source.getCollection("Video_Actors"), false);
+    }
+
+    @Benchmark
+    public SourceScan.Recordings createVideoRecordingCollection() {
+        return Create.createVideoRecordingCollection(fixture.source, target);
+    }
+
+    @Benchmark
+    public Map<Object, Object> createCategoriesCollection() {
+        return Create.createCategoriesCollection(fixture.source, target);
+    }
+
+    @Benchmark
+    public Map<Object, Object> createActorsCollection() {
+        return Create.createActorsCollection(actorSource, target);
+    }
+
+    @Benchmark
+    public Map<Object, Object> createRatingsCollection() {
+        return Create.createRatingsCollection(recordingSource, target);
+    }
+
+    @Benchmark
+    public Map<Object, Object> createDirectorCollection() {
+        return Create.createDirectorCollection(recordingSource, target);
+    }
+
+    @Benchmark
+    public void createFactTable() {
+        Create.createFactTable(fixture.source, target, recordingSource, dimensionKeys);
+    }
+}
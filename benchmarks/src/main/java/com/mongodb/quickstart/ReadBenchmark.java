@@ -0,0 +1,84 @@
+package com.mongodb.quickstart;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/*
+One benchmark per Read query, run through the live aggregation pipelines (PipelineQueries) with the default
+parameters against a star schema built from the fixture once per dataset size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReadBenchmark {
+    @Param({"1000", "10000"})
+    public int recordings;
+
+    private BenchmarkFixture fixture;
+    private StarQueries queries;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new BenchmarkFixture(recordings);
+        fixture.ensureStar();
+        queries = new PipelineQueries(fixture.star);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public Map<String, Integer> query3() {
+        return queries.query3();
+    }
+
+    @Benchmark
+    public Map<String, Integer> query4() {
+        return queries.query4(StarQueries.DEFAULT_MIN_STOCK);
+    }
+
+    @Benchmark
+    public Map<String, Set<String>> query5() {
+        return queries.query5();
+    }
+
+    @Benchmark
+    public Map<String, Set<String>> query6() {
+        return queries.query6();
+    }
+
+    @Benchmark
+    public Map<String, Set<String>> query7() {
+        return queries.query7(StarQueries.DEFAULT_EXCLUDED_CATEGORY);
+    }
+
+    @Benchmark
+    public Map<String, Set<String>> query8() {
+        return queries.query8(StarQueries.DEFAULT_REQUIRED_CATEGORIES);
+    }
+
+    @Benchmark
+    public int query9() {
+        return queries.query9(StarQueries.DEFAULT_PRICE_CATEGORY, StarQueries.DEFAULT_MIN_PRICE);
+    }
+}
@@ -0,0 +1,111 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+Streams documents into a collection with unordered bulkWrite batches sent on virtual threads.
+At most maxInFlight batches are being written at a time, write() blocks once that many are pending,
+so reading the source and writing the target overlap while heap use stays at about
+batchSize * (maxInFlight + 1) documents whatever the input size.
+Several threads may share one writer.
+ */
+public class BatchedWriter implements AutoCloseable {
+    // -Dcreate.batchSize and -Dcreate.inFlightBatches tune every writer created with forCollection()
+    private static final int BATCH_SIZE = Integer.getInteger("create.batchSize", 1000);
+    private static final int IN_FLIGHT_BATCHES = Integer.getInteger("create.inFlightBatches", 4);
+
+    private final MongoCollection<Document> collection;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    private final AtomicLong written = new AtomicLong();
+    private final long start = System.nanoTime();
+    private List<WriteModel<Document>> batch;
+    private long batches;
+
+    BatchedWriter(MongoCollection<Document> collection, int batchSize, int maxInFlight) {
+        this.collection = collection;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.batch = new ArrayList<>(batchSize);
+    }
+
+    static BatchedWriter forCollection(MongoCollection<Document> collection) {
+        return new BatchedWriter(collection, BATCH_SIZE, IN_FLIGHT_BATCHES);
+    }
+
+    void write(Document document) {
+        lock.lock();
+        try {
+            batch.add(new InsertOneModel<>(document));
+            if (batch.size() >= batchSize) {
+                submit();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void submit() {
+        throwIfFailed();
+        List<WriteModel<Document>> models = batch;
+        batch = new ArrayList<>(batchSize);
+        inFlight.acquireUninterruptibly();
+        batches++;
+        executor.execute(() -> {
+            try {
+                written.addAndGet(collection.bulkWrite(models, new BulkWriteOptions().ordered(false)).getInsertedCount());
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private void throwIfFailed() {
+        RuntimeException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /*
+    Flushes the last partial batch and waits for every batch to be written.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (!batch.isEmpty()) {
+                submit();
+            }
+        } finally {
+            lock.unlock();
+            inFlight.acquireUninterruptibly(maxInFlight);
+            inFlight.release(maxInFlight);
+            executor.close();
+        }
+        throwIfFailed();
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        System.out.println(String.format("%s: wrote %d documents in %d batches, %.0f docs/s",
+                collection.getNamespace().getCollectionName(), written.get(), batches, written.get() / seconds));
+    }
+}
@@ -0,0 +1,88 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoDatabase;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+StarQueries whose actor-by-category questions (query5 - query8) are answered with the CategoryBitmaps index,
+the other queries and every query while the bitmaps are stale go to the fallback engine.
+The persisted bitmaps are loaded once per ETL run version.
+ */
+public class BitmapQueries implements StarQueries {
+    private final MongoDatabase finalDB;
+    private final StarQueries fallback;
+    private CategoryBitmaps bitmaps;
+
+    BitmapQueries(MongoDatabase finalDB, StarQueries fallback) {
+        this.finalDB = finalDB;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public Map<String, Integer> query3() {
+        return fallback.query3();
+    }
+
+    @Override
+    public Map<String, Integer> query4(int minStock) {
+        return fallback.query4(minStock);
+    }
+
+    @Override
+    public Map<String, Set<String>> query5() {
+        CategoryBitmaps current = current();
+        return current == null ? fallback.query5() : current.categoriesOf(current.allActors());
+    }
+
+    @Override
+    public Map<String, Set<String>> query6() {
+        CategoryBitmaps current = current();
+        return current == null ? fallback.query6() : current.categoriesOf(current.inAtLeast(2));
+    }
+
+    @Override
+    public Map<String, Set<String>> query7(String excludedCategory) {
+        CategoryBitmaps current = current();
+        return current == null ? fallback.query7(excludedCategory)
+                : current.categoriesOf(current.matching(List.of(), List.of(), List.of(excludedCategory)));
+    }
+
+    @Override
+    public Map<String, Set<String>> query8(List<String> requiredCategories) {
+        CategoryBitmaps current = current();
+        if (current == null) {
+            return fallback.query8(requiredCategories);
+        }
+        // $all with an empty list matches nothing
+        return current.categoriesOf(requiredCategories.isEmpty() ? new BitSet()
+                : current.matching(requiredCategories, List.of(), List.of()));
+    }
+
+    @Override
+    public int query9(String category, int minPrice) {
+        return fallback.query9(category, minPrice);
+    }
+
+    /*
+    Actors matching an arbitrary category combination, see CategoryBitmaps.matching. Null while the bitmaps are stale.
+     */
+    Map<String, Set<String>> actors(List<String> allOf, List<String> anyOf, List<String> noneOf) {
+        CategoryBitmaps current = current();
+        return current == null ? null : current.categoriesOf(current.matching(allOf, anyOf, noneOf));
+    }
+
+    private synchronized CategoryBitmaps current() {
+        long version = EtlMetadata.currentVersion(finalDB);
+        if (bitmaps == null || bitmaps.etlVersion() != version) {
+            bitmaps = CategoryBitmaps.load(finalDB);
+            if (bitmaps == null) {
+                System.out.println("category bitmaps are stale, using the live joins");
+            }
+        }
+        return bitmaps;
+    }
+}
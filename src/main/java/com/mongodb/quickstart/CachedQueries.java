@@ -0,0 +1,215 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoDatabase;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/*
+LRU cache of StarQueries answers in front of another engine, keyed by query and parameters.
+Lab_3_Star only changes when Create records a new ETL run version in Etl_Metadata, the cache remembers the
+version its answers were computed for and drops everything once the recorded version moves on. The version
+is read at most every versionCheckMillis, so an answer can outlive its version by that long.
+Answers are computed outside the lock, concurrent misses of the same key wait for the one computation in flight.
+Cached answers are shared by every caller (every QueryService request thread), so they are stored as unmodifiable
+copies; a caller that tries to modify one gets UnsupportedOperationException instead of corrupting the cache.
+ */
+public class CachedQueries implements StarQueries {
+    private final StarQueries engine;
+    private final MongoDatabase finalDB;
+    private final int maxEntries;
+    private final long versionCheckMillis;
+    private final LinkedHashMap<Key, Object> answers;
+    private final Map<Key, CompletableFuture<Object>> inFlight = new HashMap<>();
+    private long version = -1;
+    private long lastVersionCheck;
+    private long hits;
+    private long misses;
+    private long invalidations;
+
+    private record Key(String query, List<Object> parameters) {}
+
+    CachedQueries(MongoDatabase finalDB, StarQueries engine, int maxEntries, long versionCheckMillis) {
+        this.finalDB = finalDB;
+        this.engine = engine;
+        this.maxEntries = maxEntries;
+        this.versionCheckMillis = versionCheckMillis;
+        this.answers = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                return size() > CachedQueries.this.maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public Map<String, Integer> query3() {
+        return cached("query3", engine::query3);
+    }
+
+    @Override
+    public Map<String, Integer> query4(int minStock) {
+        return cached("query4", () -> engine.query4(minStock), minStock);
+    }
+
+    @Override
+    public Map<String, Set<String>> query5() {
+        return cached("query5", engine::query5);
+    }
+
+    @Override
+    public Map<String, Set<String>> query6() {
+        return cached("query6", engine::query6);
+    }
+
+    @Override
+    public Map<String, Set<String>> query7(String excludedCategory) {
+        return cached("query7", () -> engine.query7(excludedCategory), excludedCategory);
+    }
+
+    @Override
+    public Map<String, Set<String>> query8(List<String> requiredCategories) {
+        return cached("query8", () -> engine.query8(requiredCategories), List.copyOf(requiredCategories));
+    }
+
+    @Override
+    public int query9(String category, int minPrice) {
+        return cached("query9", () -> engine.query9(category, minPrice), category, minPrice);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T cached(String query, Supplier<T> answer, Object... parameters) {
+        Key key = new Key(query, Arrays.asList(parameters));
+        long computedFor;
+        boolean computing;
+        CompletableFuture<Object> computation;
+        synchronized (this) {
+            checkVersion();
+            Object cachedAnswer = answers.get(key);
+            if (cachedAnswer != null) {
+                hits++;
+                return (T) cachedAnswer;
+            }
+            CompletableFuture<Object> running = inFlight.get(key);
+            if (running != null) {
+                // another caller is computing this answer, share its result
+                hits++;
+                computation = running;
+                computedFor = version;
+                computing = false;
+            } else {
+                misses++;
+                computation = new CompletableFuture<>();
+                inFlight.put(key, computation);
+                computedFor = version;
+                computing = true;
+            }
+        }
+        if (!computing) {
+            try {
+                return (T) computation.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        Object result;
+        try {
+            result = unmodifiable(answer.get());
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                inFlight.remove(key, computation);
+            }
+            computation.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (this) {
+            inFlight.remove(key, computation);
+            // an answer computed while the version changed may already be stale, don't keep it
+            if (computedFor == version) {
+                answers.put(key, result);
+            }
+        }
+        computation.complete(result);
+        return (T) result;
+    }
+
+    /*
+    Unmodifiable copy of an answer, answers may hold null names so Map.copyOf / Set.copyOf are not an option.
+     */
+    private static Object unmodifiable(Object answer) {
+        if (answer instanceof Map<?, ?> map) {
+            Map<Object, Object> copy = new HashMap<>();
+            map.forEach((key, value) -> copy.put(key, unmodifiable(value)));
+            return Collections.unmodifiableMap(copy);
+        }
+        if (answer instanceof Set<?> set) {
+            return Collections.unmodifiableSet(new HashSet<>(set));
+        }
+        return answer;
+    }
+
+    private void checkVersion() {
+        long now = System.currentTimeMillis();
+        if (version >= 0 && now - lastVersionCheck < versionCheckMillis) {
+            return;
+        }
+        lastVersionCheck = now;
+        long current = EtlMetadata.currentVersion(finalDB);
+        if (current != version) {
+            if (version >= 0) {
+                invalidations++;
+                System.out.println("ETL version " + version + " -> " + current + ", dropping " + answers.size() + " cached answers");
+            }
+            answers.clear();
+            version = current;
+        }
+    }
+
+    synchronized String stats() {
+        long requests = hits + misses;
+        return String.format("query cache: %d entries, ~%d KB, %d hits / %d requests (%.1f%% hit rate), %d invalidations",
+                answers.size(), footprintBytes() / 1024, hits, requests, requests == 0 ? 0 : 100.0 * hits / requests, invalidations);
+    }
+
+    /*
+    Rough heap size of the cached answers: strings at 2 bytes per char plus a fixed per-object overhead.
+     */
+    private long footprintBytes() {
+        long bytes = 0;
+        for (Map.Entry<Key, Object> entry : answers.entrySet()) {
+            bytes += 64 + estimate(entry.getKey().parameters()) + estimate(entry.getValue());
+        }
+        return bytes;
+    }
+
+    private static long estimate(Object value) {
+        if (value instanceof String s) {
+            return 40 + 2L * s.length();
+        }
+        if (value instanceof Map<?, ?> map) {
+            long bytes = 48;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                bytes += 32 + estimate(entry.getKey()) + estimate(entry.getValue());
+            }
+            return bytes;
+        }
+        if (value instanceof Collection<?> collection) {
+            long bytes = 48;
+            for (Object element : collection) {
+                bytes += 32 + estimate(element);
+            }
+            return bytes;
+        }
+        return 16;
+    }
+}
@@ -0,0 +1,192 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.RenameCollectionOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.types.Binary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.mongodb.client.model.Filters.eq;
+
+/*
+Bitmap index from category name to the actors that appeared in it, rebuilt from Lab_3_Star after every ETL run.
+Actors are numbered by name, bit n of a category bitmap is set when actor n appeared in the category, so the
+actor-by-category questions are AND / OR / ANDNOT / cardinality over a handful of bitmaps.
+Category_Bitmaps holds
+  { type: "actors", chunk, first, names }          the actor numbering, CHUNK_SIZE names per document
+  { type: "category", name, actors, cardinality }  actors is BitSet.toByteArray()
+built into Category_Bitmaps__building and renamed over Category_Bitmaps. Etl_Metadata { _id: "category_bitmaps" }
+records the ETL run version it was built from, see BitmapQueries.
+ */
+public class CategoryBitmaps {
+    static final String COLLECTION = "Category_Bitmaps";
+    static final String METADATA_ID = "category_bitmaps";
+    private static final String BUILDING = COLLECTION + "__building";
+    private static final int CHUNK_SIZE = 10_000;
+
+    private final long etlVersion;
+    private final String[] actors;
+    private final Map<String, BitSet> categories;
+
+    private CategoryBitmaps(long etlVersion, String[] actors, Map<String, BitSet> categories) {
+        this.etlVersion = etlVersion;
+        this.actors = actors;
+        this.categories = categories;
+    }
+
+    static void build(MongoDatabase finalDB) {
+        System.out.println("building category bitmaps");
+        long start = System.nanoTime();
+        long version = EtlMetadata.currentVersion(finalDB);
+        // the actor -> categories sets of the live query5 pipeline
+        Map<String, Set<String>> actorCategories = new PipelineQueries(finalDB).query5();
+        // a Dim_Actors row without a name is an actor like any other
+        String[] actors = actorCategories.keySet().stream().sorted(Comparator.nullsFirst(Comparator.naturalOrder()))
+                .toArray(String[]::new);
+        Map<String, BitSet> categories = new LinkedHashMap<>();
+        for (int actor = 0; actor < actors.length; actor++) {
+            for (String category : actorCategories.get(actors[actor])) {
+                categories.computeIfAbsent(category, name -> new BitSet(actors.length)).set(actor);
+            }
+        }
+
+        MongoCollection<Document> building = finalDB.getCollection(BUILDING);
+        building.drop();
+        // creates the collection even when there are no actors, so the rename below always has a source
+        building.createIndexes(List.of(
+                new IndexModel(Indexes.ascending("type", "chunk")),
+                new IndexModel(Indexes.ascending("type", "name"))));
+        try (BatchedWriter writer = BatchedWriter.forCollection(building)) {
+            for (int first = 0; first < actors.length; first += CHUNK_SIZE) {
+                writer.write(new Document("type", "actors").append("chunk", first / CHUNK_SIZE).append("first", first)
+                        .append("names", Arrays.asList(actors).subList(first, Math.min(first + CHUNK_SIZE, actors.length))));
+            }
+            categories.forEach((name, bitmap) -> writer.write(new Document("type", "category").append("name", name)
+                    .append("actors", new Binary(bitmap.toByteArray())).append("cardinality", bitmap.cardinality())));
+        }
+        building.renameCollection(new MongoNamespace(finalDB.getName(), COLLECTION), new RenameCollectionOptions().dropTarget(true));
+        EtlMetadata.metadata(finalDB).updateOne(eq("_id", METADATA_ID), Updates.combine(
+                        Updates.set("etl_version", version),
+                        Updates.set("actors", actors.length),
+                        Updates.set("built_at", new Date())),
+                new UpdateOptions().upsert(true));
+        System.out.println("category bitmaps built for ETL version " + version + ": " + actors.length + " actors, "
+                + categories.size() + " categories in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /*
+    The persisted bitmaps, null when they were not built from the current ETL run version.
+     */
+    static CategoryBitmaps load(MongoDatabase finalDB) {
+        Document built = EtlMetadata.metadata(finalDB).find(eq("_id", METADATA_ID)).first();
+        long version = EtlMetadata.currentVersion(finalDB);
+        if (built == null || built.get("etl_version", Number.class).longValue() != version) {
+            return null;
+        }
+        MongoCollection<Document> collection = finalDB.getCollection(COLLECTION);
+        List<String> actors = new ArrayList<>();
+        for (Document chunk : collection.find(eq("type", "actors")).sort(Sorts.ascending("chunk"))) {
+            actors.addAll(chunk.getList("names", String.class));
+        }
+        Map<String, BitSet> categories = new HashMap<>();
+        for (Document category : collection.find(eq("type", "category"))) {
+            categories.put(category.getString("name"), BitSet.valueOf(category.get("actors", Binary.class).getData()));
+        }
+        return new CategoryBitmaps(version, actors.toArray(String[]::new), categories);
+    }
+
+    long etlVersion() {
+        return etlVersion;
+    }
+
+    /*
+    Actors that appeared in every category of allOf, in at least one of anyOf (unless it is empty) and in none of noneOf.
+    With both allOf and anyOf empty the candidates are the actors that appeared in any category.
+     */
+    BitSet matching(Collection<String> allOf, Collection<String> anyOf, Collection<String> noneOf) {
+        BitSet result;
+        if (allOf.isEmpty()) {
+            result = union(anyOf.isEmpty() ? categories.keySet() : anyOf);
+        } else {
+            result = (BitSet) bitmap(allOf.iterator().next()).clone();
+            allOf.forEach(category -> result.and(bitmap(category)));
+            if (!anyOf.isEmpty()) {
+                result.and(union(anyOf));
+            }
+        }
+        noneOf.forEach(category -> result.andNot(bitmap(category)));
+        return result;
+    }
+
+    /*
+    Actors that appeared in at least `minimum` different categories (2 for query6).
+     */
+    BitSet inAtLeast(int minimum) {
+        // counts[k] holds the actors seen in more than k categories so far
+        BitSet[] counts = new BitSet[Math.max(1, minimum)];
+        for (int k = 0; k < counts.length; k++) {
+            counts[k] = new BitSet(actors.length);
+        }
+        for (BitSet category : categories.values()) {
+            for (int k = counts.length - 1; k > 0; k--) {
+                BitSet promoted = (BitSet) counts[k - 1].clone();
+                promoted.and(category);
+                counts[k].or(promoted);
+            }
+            counts[0].or(category);
+        }
+        return counts[counts.length - 1];
+    }
+
+    /*
+    Actor name -> the categories (by bitmap) of every actor in the set.
+     */
+    Map<String, Set<String>> categoriesOf(BitSet actorSet) {
+        Map<String, Set<String>> result = new HashMap<>();
+        actorSet.stream().forEach(actor -> result.put(actors[actor], new HashSet<>()));
+        categories.forEach((name, bitmap) -> {
+            BitSet members = (BitSet) bitmap.clone();
+            members.and(actorSet);
+            members.stream().forEach(actor -> result.get(actors[actor]).add(name));
+        });
+        return result;
+    }
+
+    /*
+    Every numbered actor, also the ones without any category.
+     */
+    BitSet allActors() {
+        BitSet all = new BitSet(actors.length);
+        all.set(0, actors.length);
+        return all;
+    }
+
+    private BitSet bitmap(String category) {
+        return categories.getOrDefault(category, new BitSet());
+    }
+
+    private BitSet union(Collection<String> names) {
+        BitSet union = new BitSet(actors.length);
+        names.forEach(name -> union.or(bitmap(name)));
+        return union;
+    }
+}
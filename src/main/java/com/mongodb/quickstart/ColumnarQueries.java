@@ -0,0 +1,418 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Projections;
+import org.bson.Document;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/*
+StarQueries answered in memory from a columnar copy of Lab_3_Star, loaded once.
+Every dimension _id is dictionary-encoded into a dense int (its position in the dimension's attribute arrays),
+facts are three int columns holding the encoded actor, recording and category of each fact. A foreign key without
+a dimension row still gets a code, with a missing attribute, so the joins drop it like $unwind does.
+Edge rows are answered like the live pipelines answer them: a dimension row whose name is null is a name like any other,
+query9 counts the facts without an actor_id as one actor (their $group key is null), and for query5 / query6 a fact
+without a category row adds the empty $lookup array [] to the categories of its actor, which counts as one element
+for the $size of query6 but adds no name.
+Queries split the fact columns into chunks scanned in parallel, each chunk collects the distinct pairs it saw as
+sorted long codes and the chunk results are merged, which keeps the $group semantics of the Read pipelines. The pair
+lists grow with the distinct pairs the facts hold, not with actors x categories, so memory stays bounded by the facts.
+The copy does not follow later changes to Lab_3_Star, reload it after an ETL run.
+Columns are int buffers, heap buffers over the loaded arrays or the memory-mapped sections of a StarSnapshot file.
+ */
+public class ColumnarQueries implements StarQueries {
+    private static final int NONE = -1;
+    private static final int MISSING = Integer.MIN_VALUE;
+    // -Dread.columnar.parallelism number of chunks the fact columns are scanned in
+    private static final int PARALLELISM = Integer.getInteger("read.columnar.parallelism", Runtime.getRuntime().availableProcessors());
+
+    final Names actorNames;
+    final Names categoryNames;
+    final ByteBuffer recordingExists;
+    final IntBuffer recordingPrice;
+    final IntBuffer recordingStock;
+    final IntBuffer factActor;
+    final IntBuffer factRecording;
+    final IntBuffer factCategory;
+
+    /*
+    Dimension attribute names by code, null where a foreign key has no dimension row or the row's name is null,
+    exists tells the two apart.
+     */
+    interface Names {
+        String get(int code);
+
+        boolean exists(int code);
+
+        int size();
+
+        static Names of(String[] names, BitSet exists) {
+            return new Names() {
+                @Override
+                public String get(int code) {
+                    return names[code];
+                }
+
+                @Override
+                public boolean exists(int code) {
+                    return exists.get(code);
+                }
+
+                @Override
+                public int size() {
+                    return names.length;
+                }
+            };
+        }
+    }
+
+    ColumnarQueries(Names actorNames, Names categoryNames, ByteBuffer recordingExists, IntBuffer recordingPrice,
+                    IntBuffer recordingStock, IntBuffer factActor, IntBuffer factRecording, IntBuffer factCategory) {
+        this.actorNames = actorNames;
+        this.categoryNames = categoryNames;
+        this.recordingExists = recordingExists;
+        this.recordingPrice = recordingPrice;
+        this.recordingStock = recordingStock;
+        this.factActor = factActor;
+        this.factRecording = factRecording;
+        this.factCategory = factCategory;
+    }
+
+    static ColumnarQueries load(MongoDatabase finalDB) {
+        long start = System.nanoTime();
+        Dictionary actors = new Dictionary();
+        Dictionary recordings = new Dictionary();
+        Dictionary categories = new Dictionary();
+        Map<Integer, String> actorName = new HashMap<>();
+        Map<Integer, String> categoryName = new HashMap<>();
+        Map<Integer, Document> recording = new HashMap<>();
+        for (Document doc : finalDB.getCollection("Dim_Actors").find().projection(Projections.include("name"))) {
+            actorName.put(actors.encode(doc.get("_id")), doc.getString("name"));
+        }
+        for (Document doc : finalDB.getCollection("Dim_Categories").find().projection(Projections.include("name"))) {
+            categoryName.put(categories.encode(doc.get("_id")), doc.getString("name"));
+        }
+        for (Document doc : finalDB.getCollection("Dim_Recordings").find().projection(Projections.include("price", "stock_count"))) {
+            recording.put(recordings.encode(doc.get("_id")), doc);
+        }
+
+        MongoCollection<Document> fact = finalDB.getCollection("Fact_Collection");
+        int capacity = Math.toIntExact(fact.estimatedDocumentCount()) + 1;
+        int[] factActor = new int[capacity];
+        int[] factRecording = new int[capacity];
+        int[] factCategory = new int[capacity];
+        int facts = 0;
+        for (Document doc : fact.find().projection(Projections.include("actor_id", "recording_id", "category_id"))) {
+            if (facts == factActor.length) {
+                factActor = Arrays.copyOf(factActor, facts * 2);
+                factRecording = Arrays.copyOf(factRecording, facts * 2);
+                factCategory = Arrays.copyOf(factCategory, facts * 2);
+            }
+            factActor[facts] = actors.encode(doc.get("actor_id"));
+            factRecording[facts] = recordings.encode(doc.get("recording_id"));
+            factCategory[facts] = categories.encode(doc.get("category_id"));
+            facts++;
+        }
+
+        // dictionaries are complete only now, facts may have added codes for keys without a dimension row
+        String[] actorNames = new String[actors.size()];
+        BitSet actorExists = new BitSet(actorNames.length);
+        actorName.forEach((code, name) -> {
+            actorNames[code] = name;
+            actorExists.set(code);
+        });
+        String[] categoryNames = new String[categories.size()];
+        BitSet categoryExists = new BitSet(categoryNames.length);
+        categoryName.forEach((code, name) -> {
+            categoryNames[code] = name;
+            categoryExists.set(code);
+        });
+        byte[] recordingExists = new byte[recordings.size()];
+        int[] recordingPrice = new int[recordings.size()];
+        int[] recordingStock = new int[recordings.size()];
+        Arrays.fill(recordingPrice, MISSING);
+        Arrays.fill(recordingStock, MISSING);
+        recording.forEach((code, doc) -> {
+            recordingExists[code] = 1;
+            recordingPrice[code] = intValue(doc.get("price"));
+            recordingStock[code] = intValue(doc.get("stock_count"));
+        });
+
+        ColumnarQueries columnar = new ColumnarQueries(Names.of(actorNames, actorExists), Names.of(categoryNames, categoryExists), ByteBuffer.wrap(recordingExists),
+                IntBuffer.wrap(recordingPrice), IntBuffer.wrap(recordingStock), IntBuffer.wrap(factActor, 0, facts).slice(),
+                IntBuffer.wrap(factRecording, 0, facts).slice(), IntBuffer.wrap(factCategory, 0, facts).slice());
+        System.out.println("columnar engine: loaded " + facts + " facts, " + actorNames.length + " actors, "
+                + recordingExists.length + " recordings, " + categoryNames.length + " categories in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms, ~" + footprintBytes(actorNames, categoryNames, facts, recordingExists.length) / 1024
+                + " KB of columns");
+        return columnar;
+    }
+
+    @Override
+    public Map<String, Integer> query3() {
+        return recordingsPerCategory(null);
+    }
+
+    @Override
+    public Map<String, Integer> query4(int minStock) {
+        return recordingsPerCategory(minStock);
+    }
+
+    @Override
+    public Map<String, Set<String>> query5() {
+        return categoriesPerActor(false, (categories, elements) -> true);
+    }
+
+    @Override
+    public Map<String, Set<String>> query6() {
+        return categoriesPerActor(false, (categories, elements) -> elements > 1);
+    }
+
+    @Override
+    public Map<String, Set<String>> query7(String excludedCategory) {
+        return categoriesPerActor(true, (categories, elements) -> !categories.contains(excludedCategory));
+    }
+
+    @Override
+    public Map<String, Set<String>> query8(List<String> requiredCategories) {
+        // $all with an empty list matches nothing
+        return categoriesPerActor(true, (categories, elements) -> !requiredCategories.isEmpty() && categories.containsAll(requiredCategories));
+    }
+
+    @Override
+    public int query9(String category, int minPrice) {
+        BitSet matching = categoryCodes(category);
+        // a is NONE (-1) for facts without an actor_id, they are one more distinct actor like the null $group key
+        return scan((pairs, i) -> {
+            int c = factCategory.get(i);
+            int r = factRecording.get(i);
+            int a = factActor.get(i);
+            if (c != NONE && r != NONE && matching.get(c) && recordingExists.get(r) != 0) {
+                int price = recordingPrice.get(r);
+                if (price != MISSING && price > minPrice) {
+                    pairs.add(a);
+                }
+            }
+        }).size;
+    }
+
+    /*
+    Distinct (category, recording) pairs with an existing recording (and stock_count > minStock unless it is null),
+    counted per category name, null included.
+     */
+    private Map<String, Integer> recordingsPerCategory(Integer minStock) {
+        int recordings = recordingExists.capacity();
+        boolean stockFilter = minStock != null;
+        int threshold = stockFilter ? minStock : 0;
+        Pairs pairs = scan((chunk, i) -> {
+            int c = factCategory.get(i);
+            int r = factRecording.get(i);
+            if (c != NONE && r != NONE && recordingExists.get(r) != 0
+                    && (!stockFilter || recordingStock.get(r) != MISSING && recordingStock.get(r) > threshold)) {
+                chunk.add((long) c * recordings + r);
+            }
+        });
+        Map<String, Integer> counts = new HashMap<>();
+        // the codes are sorted, the pairs of one category are consecutive
+        for (int i = 0; i < pairs.size; ) {
+            int c = (int) (pairs.codes[i] / recordings);
+            int count = 0;
+            for (; i < pairs.size && pairs.codes[i] / recordings == c; i++) {
+                count++;
+            }
+            if (categoryNames.exists(c)) {
+                counts.merge(categoryNames.get(c), count, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    /*
+    Distinct categories of an actor as the live pipelines see them before the filter: names holds the names of the
+    existing category rows (null included), elements additionally counts the [] of facts without a category row.
+     */
+    private interface ActorFilter {
+        boolean test(Set<String> names, int elements);
+    }
+
+    /*
+    Category names of every actor with a Dim_Actors row. With requireCategory (the $unwind of query7 / query8) only
+    categories with a Dim_Categories row count and actors without any are left out. Null names take part in the filter
+    but are not part of the answer, PipelineQueries.flatten drops them too.
+     */
+    private Map<String, Set<String>> categoriesPerActor(boolean requireCategory, ActorFilter filter) {
+        // one slot per category plus one for facts without a category_id
+        int slots = categoryNames.size() + 1;
+        // actors without a Dim_Actors row are dropped after the scan, their pairs are never read
+        Pairs pairs = scan((chunk, i) -> {
+            int a = factActor.get(i);
+            int c = factCategory.get(i);
+            if (a != NONE) {
+                chunk.add((long) a * slots + (c == NONE ? slots - 1 : c));
+            }
+        });
+        String[] categories = new String[categoryNames.size()];
+        Arrays.setAll(categories, categoryNames::get);
+        BitSet categoryExists = new BitSet(categories.length);
+        for (int c = 0; c < categories.length; c++) {
+            if (categoryNames.exists(c)) {
+                categoryExists.set(c);
+            }
+        }
+        Map<String, Set<String>> result = new HashMap<>();
+        // the codes are sorted, the pairs of one actor are consecutive
+        for (int i = 0; i < pairs.size; ) {
+            int a = (int) (pairs.codes[i] / slots);
+            Set<String> names = new HashSet<>();
+            boolean withoutCategory = false;
+            for (; i < pairs.size && pairs.codes[i] / slots == a; i++) {
+                int c = (int) (pairs.codes[i] % slots);
+                if (c < categories.length && categoryExists.get(c)) {
+                    names.add(categories[c]);
+                } else {
+                    withoutCategory = true;
+                }
+            }
+            if (!actorNames.exists(a)) {
+                continue;
+            }
+            int elements = names.size() + (withoutCategory && !requireCategory ? 1 : 0);
+            if ((!requireCategory || !names.isEmpty()) && filter.test(names, elements)) {
+                Set<String> answer = result.computeIfAbsent(actorNames.get(a), name -> new HashSet<>());
+                names.stream().filter(name -> name != null).forEach(answer::add);
+            }
+        }
+        return result;
+    }
+
+    private interface FactScan {
+        void accept(Pairs pairs, int fact);
+    }
+
+    /*
+    Runs the scan over PARALLELISM chunks of the fact columns and merges the distinct codes of the chunks.
+     */
+    private Pairs scan(FactScan scan) {
+        int facts = factActor.limit();
+        int chunks = Math.max(1, Math.min(PARALLELISM, facts));
+        return IntStream.range(0, chunks).parallel()
+                .mapToObj(chunk -> {
+                    Pairs pairs = new Pairs();
+                    for (int i = (int) ((long) facts * chunk / chunks), end = (int) ((long) facts * (chunk + 1) / chunks); i < end; i++) {
+                        scan.accept(pairs, i);
+                    }
+                    pairs.distinct();
+                    return pairs;
+                })
+                .reduce(Pairs::merge)
+                .orElseGet(Pairs::new);
+    }
+
+    /*
+    Pair codes collected by one chunk: appended unsorted, sorted and deduplicated when the buffer fills (it only grows
+    if that did not free half of it) and once at the end of the chunk.
+     */
+    private static class Pairs {
+        long[] codes = new long[1024];
+        int size;
+
+        void add(long code) {
+            if (size == codes.length) {
+                distinct();
+                if (size > codes.length / 2) {
+                    codes = Arrays.copyOf(codes, codes.length * 2);
+                }
+            }
+            codes[size++] = code;
+        }
+
+        void distinct() {
+            Arrays.sort(codes, 0, size);
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (kept == 0 || codes[i] != codes[kept - 1]) {
+                    codes[kept++] = codes[i];
+                }
+            }
+            size = kept;
+        }
+
+        /*
+        Union of two distinct sorted code lists.
+         */
+        static Pairs merge(Pairs left, Pairs right) {
+            Pairs merged = new Pairs();
+            merged.codes = new long[Math.max(1, left.size + right.size)];
+            int i = 0;
+            int j = 0;
+            while (i < left.size || j < right.size) {
+                long code;
+                if (j == right.size || i < left.size && left.codes[i] < right.codes[j]) {
+                    code = left.codes[i++];
+                } else if (i == left.size || right.codes[j] < left.codes[i]) {
+                    code = right.codes[j++];
+                } else {
+                    code = left.codes[i++];
+                    j++;
+                }
+                merged.codes[merged.size++] = code;
+            }
+            return merged;
+        }
+    }
+
+    /*
+    Codes of the categories named category (a category name can have more than one Dim_Categories row, query9 counts
+    an actor of two same-named categories once, like the live pipeline).
+     */
+    private BitSet categoryCodes(String category) {
+        BitSet codes = new BitSet(categoryNames.size());
+        for (int c = 0; c < categoryNames.size(); c++) {
+            if (category.equals(categoryNames.get(c))) {
+                codes.set(c);
+            }
+        }
+        return codes;
+    }
+
+    private static long footprintBytes(String[] actorNames, String[] categoryNames, int facts, int recordings) {
+        long bytes = 12L * facts + 9L * recordings;
+        for (String name : actorNames) {
+            bytes += name == null ? 8 : 48 + 2L * name.length();
+        }
+        for (String name : categoryNames) {
+            bytes += name == null ? 8 : 48 + 2L * name.length();
+        }
+        return bytes;
+    }
+
+    private static int intValue(Object value) {
+        return value instanceof Number number ? number.intValue() : MISSING;
+    }
+
+    /*
+    Dense int codes for the _id values of one dimension, in order of first appearance; null is NONE.
+     */
+    private static class Dictionary {
+        private final Map<Object, Integer> codes = new HashMap<>();
+
+        int encode(Object key) {
+            return key == null ? NONE : codes.computeIfAbsent(key, k -> codes.size());
+        }
+
+        int size() {
+            return codes.size();
+        }
+    }
+}
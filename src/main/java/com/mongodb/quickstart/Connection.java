@@ -1,7 +1,6 @@
 package com.mongodb.quickstart;
 
 import com.mongodb.client.MongoClient;
-import com.mongodb.client.MongoClients;
 import org.bson.Document;
 import org.bson.json.JsonWriterSettings;
 
@@ -12,7 +11,7 @@ public class Connection {
 
     public static void main(String[] args) {
         String connectionString = System.getProperty("mongodb.uri");
-        try (MongoClient mongoClient = MongoClients.create(connectionString)) {
+        try (MongoClient mongoClient = DriverMetrics.createClient(connectionString, "connection")) {
             System.out.println("=> Connection successful: " + preFlightChecks(mongoClient));
             System.out.println("=> Print list of databases:");
             List<Document> databases = mongoClient.listDatabases().into(new ArrayList<>());
@@ -1,221 +1,296 @@
 package com.mongodb.quickstart;
 
 import com.mongodb.client.MongoClient;
-import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
 import org.bson.Document;
 import org.bson.conversions.Bson;
-import org.bson.types.ObjectId;
 
 import java.util.*;
-
-import static com.mongodb.client.model.Filters.eq;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.lte;
 
 public class Create {
+    // -Dcreate.recordingIds=true embeds the per-key recording id lists in Dim_Actors, Dim_Directors and Dim_Ratings
+    static final boolean WITH_RECORDING_IDS = Boolean.getBoolean("create.recordingIds");
+    // -Dcreate.parallelism=N number of Video_Actors _id ranges converted to facts concurrently
+    private static final int FACT_PARALLELISM = Integer.getInteger("create.parallelism", Runtime.getRuntime().availableProcessors());
+
     public static void main(String[] args) {
-        try (MongoClient mongoClient = MongoClients.create(System.getProperty("mongodb.uri"))) {
+        try (MongoClient mongoClient = DriverMetrics.createClient(System.getProperty("mongodb.uri"), "create")) {
             MongoDatabase originalDB = mongoClient.getDatabase("Lab_3");
             MongoDatabase finalDB = mongoClient.getDatabase("Lab_3_Star");
 
-            createVideoRecordingCollection(originalDB, finalDB);
-            createCategoriesCollection(originalDB, finalDB);
-            createActorsCollection(originalDB, finalDB);
-            createRatingsCollection(originalDB, finalDB);
-            createDirectorCollection(originalDB, finalDB);
-            createFactTable(originalDB, finalDB);
+            // -Dcreate.mode=client (default) | server | compare | incremental | rollback | verify-plans | storage
+            String mode = System.getProperty("create.mode", "client");
+            switch (mode) {
+                case "client" -> buildClientSide(originalDB, finalDB);
+                case "server" -> ServerSideEtl.build(originalDB, finalDB, WITH_RECORDING_IDS);
+                case "compare" -> EtlComparison.compare(originalDB, finalDB, WITH_RECORDING_IDS);
+                case "incremental" -> new IncrementalSync(originalDB, finalDB).run();
+                case "rollback" -> StagedBuild.rollback(finalDB);
+                case "verify-plans" -> QueryPlanVerifier.verify(finalDB);
+                case "storage" -> StorageReport.compare(finalDB);
+                default -> throw new IllegalArgumentException("Unknown create.mode: " + mode);
+            }
+            // -Dcreate.verifyPlans=true explains every Read query against the freshly built schema
+            if (Boolean.getBoolean("create.verifyPlans") && !mode.equals("verify-plans")) {
+                QueryPlanVerifier.verify(finalDB);
+            }
         }
     }
 
-    private static void createFactTable(MongoDatabase originalDB, MongoDatabase finalDB){
-        System.out.println("creating fact collection");
-        MongoCollection<Document> originalCollection = originalDB.getCollection("Video_Actors");
-        MongoCollection<Document> factCollection = finalDB.getCollection("Fact_Collection");
-        MongoCollection<Document> dim_actors = finalDB.getCollection("Dim_Actors");
-        MongoCollection<Document> dim_recordings = finalDB.getCollection("Dim_Recordings");
-        MongoCollection<Document> dim_ratings = finalDB.getCollection("Dim_Ratings");
-        MongoCollection<Document> dim_categories = finalDB.getCollection("Dim_Categories");
-        MongoCollection<Document> dim_directors = finalDB.getCollection("Dim_Directors");
-
-        // clear Fact_Collection if already exists
-        factCollection.deleteMany(new Document());
-
-        // loop over Video_Actors
-        List<Document> fact_records = new ArrayList<>();
-        for(Document original: originalCollection.find()){
-            // need to get
+    static void buildClientSide(MongoDatabase originalDB, MongoDatabase finalDB) {
+        StagedBuild.run(finalDB, target -> buildClientSide(originalDB, target));
+    }
 
-            // actor id
-            String actor_name = original.getString("name");
-            Bson filter = eq("name", actor_name);
-            ObjectId obj_actor_id = dim_actors.find(filter).first().getObjectId("_id");
+    private static void buildClientSide(MongoDatabase originalDB, StagedBuild target) {
+        // one cursor pass per source collection feeds every dimension built from it, Dim_Recordings is written during
+        // the Video_Recordings pass. The dimensions don't depend on each other and are built concurrently, each builder
+        // hands the fact build its natural key -> _id map so no dimension is read back
+        AtomicReference<SourceScan.Recordings> recordingSource = new AtomicReference<>();
+        AtomicReference<SourceScan.Actors> actorSource = new AtomicReference<>();
+        Map<String, Map<?, ?>> dimensionKeys = new ConcurrentHashMap<>();
+        new EtlScheduler()
+                .stage("Dim_Recordings", () -> recordingSource.set(createVideoRecordingCollection(originalDB, target)))
+                .stage("scan Video_Actors", () -> actorSource.set(
+                        SourceScan.scanActors(originalDB.getCollection("Video_Actors"), WITH_RECORDING_IDS)))
+                .stage("Dim_Categories", () -> dimensionKeys.put("Dim_Categories", createCategoriesCollection(originalDB, target)))
+                .stage("Dim_Actors", () -> dimensionKeys.put("Dim_Actors", createActorsCollection(actorSource.get(), target)),
+                        "scan Video_Actors")
+                .stage("Dim_Ratings", () -> dimensionKeys.put("Dim_Ratings", createRatingsCollection(recordingSource.get(), target)),
+                        "Dim_Recordings")
+                .stage("Dim_Directors", () -> dimensionKeys.put("Dim_Directors", createDirectorCollection(recordingSource.get(), target)),
+                        "Dim_Recordings")
+                // dimension indexes are built while the fact build runs, renameCollection keeps them on swap
+                .stage("dimension indexes", () -> StarIndexes.build(target::collection, StagedBuild.DIMENSIONS),
+                        "Dim_Recordings", "Dim_Categories", "Dim_Actors", "Dim_Ratings", "Dim_Directors")
+                .stage("Fact_Collection", () -> createFactTable(originalDB, target, recordingSource.get(), dimensionKeys),
+                        "Dim_Recordings", "Dim_Categories", "Dim_Actors", "Dim_Ratings", "Dim_Directors")
+                .stage("fact indexes", () -> StarIndexes.build(target::collection, List.of("Fact_Collection")), "Fact_Collection")
+                .run();
+    }
 
-            // recording id
+    /*
+    recordings and dimensionKeys (Lab_3_Star dimension -> natural key -> _id) are what the dimension builders returned.
+     */
+    static void createFactTable(MongoDatabase originalDB, StagedBuild target, SourceScan.Recordings recordings,
+                                Map<String, Map<?, ?>> dimensionKeys){
+        System.out.println("creating fact collection");
+        MongoCollection<Document> originalCollection = originalDB.getCollection("Video_Actors");
+        MongoCollection<Document> factCollection = target.collection("Fact_Collection");
+
+        // every dimension's natural key -> _id comes from its builder instead of a query per fact row
+        DimensionKeyResolver<Object> dim_actors = DimensionKeyResolver.ids(target.collection("Dim_Actors"), "name",
+                dimensionKeys.get("Dim_Actors"));
+        DimensionKeyResolver<Object> dim_recordings = DimensionKeyResolver.ids(target.collection("Dim_Recordings"), "recording_id",
+                recordings.recordingKeys());
+        DimensionKeyResolver<Object> dim_ratings = DimensionKeyResolver.ids(target.collection("Dim_Ratings"), "rating",
+                dimensionKeys.get("Dim_Ratings"));
+        DimensionKeyResolver<Object> dim_categories = DimensionKeyResolver.ids(target.collection("Dim_Categories"), "name",
+                dimensionKeys.get("Dim_Categories"));
+        DimensionKeyResolver<Object> dim_directors = DimensionKeyResolver.ids(target.collection("Dim_Directors"), "director",
+                dimensionKeys.get("Dim_Directors"));
+        DimensionKeyResolver<Document> video_recordings = DimensionKeyResolver.documents(originalDB.getCollection("Video_Recordings"),
+                "recording_id", recordings.attributes());
+
+        Function<Document, Document> factEntry = original -> {
             int recording_id = original.getInteger("recording_id");
-            filter = eq("recording_id", recording_id);
-            ObjectId obj_recording_id = dim_recordings.find(filter).first().getObjectId("_id");
-
             // get the recording entry from original db
-            MongoCollection<Document> video_recordings = originalDB.getCollection("Video_Recordings");
-            filter = eq("recording_id", recording_id);
-            Document video_recording = video_recordings.find(filter).first();
-
-            // rating id
-            String rating = video_recording.getString("rating");
-            filter = eq("rating", rating);
-            ObjectId rating_id = dim_ratings.find(filter).first().getObjectId("_id");
-
-            // category id
-            String category = video_recording.getString("category");
-            filter = eq("name", category);
-            ObjectId category_id = dim_categories.find(filter).first().getObjectId("_id");
-
-            // director id
-            String director = video_recording.getString("director");
-            filter = eq("director", director);
-            ObjectId director_id = dim_directors.find(filter).first().getObjectId("_id");
+            Document video_recording = video_recordings.resolve(recording_id);
 
             // assemble partial document
-            Document factEntry = new Document("actor_id", obj_actor_id)
-                    .append("recording_id", obj_recording_id)
-                    .append("rating_id", rating_id)
-                    .append("category_id", category_id)
-                    .append("director_id", director_id);
-
-            fact_records.add(factEntry);
+            // facts share the _id of their Video_Actors row so incremental updates and deletes can find them
+            Document fact = new Document("_id", original.get("_id"))
+                    .append("actor_id", dim_actors.resolve(original.getString("name")))
+                    .append("recording_id", dim_recordings.resolve(recording_id))
+                    .append("rating_id", dim_ratings.resolve(video_recording.getString("rating")))
+                    .append("category_id", dim_categories.resolve(video_recording.getString("category")))
+                    .append("director_id", dim_directors.resolve(video_recording.getString("director")));
+            // -Dcreate.wide=true: copy the selected dimension attributes next to the foreign keys
+            return WideFacts.embed(fact, WideFacts.ATTRIBUTES, original, video_recording);
+        };
+
+        // Video_Actors is split into _id ranges that are converted in parallel, all feeding one bounded writer
+        List<Bson> partitions = factPartitions(originalCollection, FACT_PARALLELISM);
+        try (BatchedWriter writer = BatchedWriter.forCollection(factCollection);
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < partitions.size(); i++) {
+                String label = "fact partition " + (i + 1) + "/" + partitions.size();
+                Bson partition = partitions.get(i);
+                futures.add(executor.submit(() -> createFactPartition(label, originalCollection.find(partition), factEntry, writer)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building Fact_Collection", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
         }
-        //Insert into the new actor collection
-        factCollection.insertMany(fact_records);
-    }
-
-    private static void createDirectorCollection(MongoDatabase originalDB, MongoDatabase finalDB) {
-        System.out.println("creating director collection");
-        MongoCollection<Document> originalCollection = originalDB.getCollection("Video_Recordings");
-        MongoCollection<Document> newCollection = finalDB.getCollection("Dim_Directors");
 
-        newCollection.deleteMany(new Document());
+        System.out.println(dim_actors.stats());
+        System.out.println(dim_recordings.stats());
+        System.out.println(dim_ratings.stats());
+        System.out.println(dim_categories.stats());
+        System.out.println(dim_directors.stats());
+        System.out.println(video_recordings.stats());
+    }
 
-        List<String> directorNames = new ArrayList<>();
-        for(Document movie: originalCollection.find()){
-            if(!directorNames.contains(movie.getString("director"))){
-                directorNames.add(movie.getString("director"));
-            }
+    private static void createFactPartition(String label, Iterable<Document> originals, Function<Document, Document> factEntry,
+                                            BatchedWriter writer) {
+        long start = System.nanoTime();
+        int facts = 0;
+        // loop over Video_Actors
+        for(Document original: originals){
+            writer.write(factEntry.apply(original));
+            facts++;
         }
+        System.out.println(label + ": " + facts + " facts in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
 
-        List<Document> directors = new ArrayList<>();
-        for(String directorName : directorNames){
-            //Filter by actor name
-            Bson filter = eq("director", directorName);
+    /*
+    Filters splitting a collection into at most `parallelism` contiguous _id ranges of similar size.
+    $bucketAuto bounds are [min, max) except for the last bucket, which includes its max.
+     */
+    static List<Bson> factPartitions(MongoCollection<Document> collection, int parallelism) {
+        List<Document> buckets = collection.aggregate(Arrays.asList(
+                Aggregates.project(Projections.include("_id")),
+                Aggregates.bucketAuto("$_id", Math.max(1, parallelism))
+        )).allowDiskUse(true).into(new ArrayList<>());
+        List<Bson> partitions = new ArrayList<>();
+        for (int i = 0; i < buckets.size(); i++) {
+            Document bounds = buckets.get(i).get("_id", Document.class);
+            partitions.add(and(gte("_id", bounds.get("min")),
+                    i == buckets.size() - 1 ? lte("_id", bounds.get("max")) : lt("_id", bounds.get("max"))));
+        }
+        return partitions;
+    }
 
-            //Create a list of recording ids by searching the actors name and adding associated ids
-            List<Integer> recording_ids = new ArrayList<>();
-            originalCollection.find(filter).forEach(doc -> {
-                recording_ids.add(doc.getInteger("recording_id"));
+    /*
+    The dimension builders return their natural key -> _id map for the fact build.
+     */
+    static Map<Object, Object> createDirectorCollection(SourceScan.Recordings source, StagedBuild target) {
+        System.out.println("creating director collection");
+        MongoCollection<Document> newCollection = target.collection("Dim_Directors");
+
+        //Insert into the new director collection
+        SurrogateKeys.Sequence keys = new SurrogateKeys.Sequence();
+        Map<Object, Object> ids = new HashMap<>();
+        try (BatchedWriter writer = BatchedWriter.forCollection(newCollection)) {
+            source.directors().forEach((directorName, recording_ids) -> {
+                Document directorEntry = keys.newEntry().append("director", directorName);
+                if (WITH_RECORDING_IDS) {
+                    directorEntry.append("Movies", recording_ids);
+                }
+                writer.write(directorEntry);
+                ids.put(directorName, directorEntry.get("_id"));
             });
-
-            Document directorEntry = new Document("director", directorName);
-                    //.append("Movies", recording_ids);
-            directors.add(directorEntry);
-
         }
-        //Insert into the new actor collection
-        newCollection.insertMany(directors);
+        return ids;
     }
 
-    private static void createRatingsCollection(MongoDatabase originalDB, MongoDatabase finalDB){
+    static Map<Object, Object> createRatingsCollection(SourceScan.Recordings source, StagedBuild target){
         System.out.println("creating ratings collection");
-        MongoCollection<Document> originalCollection = originalDB.getCollection("Video_Recordings");
-        MongoCollection<Document> newCollection = finalDB.getCollection("Dim_Ratings");
-        newCollection.deleteMany(new Document());
-        List<String> ratings = Arrays.asList("PG", "PG-13", "R", "NR");
-
-        List<Document> ratingData = new ArrayList<>();
-        for(String rating : ratings){
-            Bson filter = eq("rating", rating);
-
-            List<Integer> recording_ids = new ArrayList<>();
-            originalCollection.find(filter).forEach(doc -> {
-                recording_ids.add(doc.getInteger("recording_id"));
+        MongoCollection<Document> newCollection = target.collection("Dim_Ratings");
+        // ratings are whatever values appear in Video_Recordings
+        SurrogateKeys.Sequence keys = new SurrogateKeys.Sequence();
+        Map<Object, Object> ids = new HashMap<>();
+        try (BatchedWriter writer = BatchedWriter.forCollection(newCollection)) {
+            source.ratings().forEach((rating, recording_ids) -> {
+                Document ratingEntry = keys.newEntry().append("rating", rating);
+                if (WITH_RECORDING_IDS) {
+                    ratingEntry.append("recording_ids", recording_ids);
+                }
+                writer.write(ratingEntry);
+                ids.put(rating, ratingEntry.get("_id"));
             });
-
-            Document ratingEntry = new Document("rating", rating);
-                    //.append("recording_ids", recording_ids);
-            ratingData.add(ratingEntry);
         }
-
-        newCollection.insertMany(ratingData);
+        return ids;
     }
 
-    private static void createActorsCollection(MongoDatabase originalDB, MongoDatabase finalDB){
+    static Map<Object, Object> createActorsCollection(SourceScan.Actors source, StagedBuild target){
         System.out.println("creating actors collection");
-        MongoCollection<Document> originalCollection = originalDB.getCollection("Video_Actors");
-        MongoCollection<Document> newCollection = finalDB.getCollection("Dim_Actors");
-        newCollection.deleteMany(new Document());
-
-
-        Map<String, Integer> actorIdMap = new TreeMap<>();
-        for(Document actorDoc: originalCollection.find()){
-            if(!actorIdMap.containsKey(actorDoc.getString("name"))) {
-                actorIdMap.put(actorDoc.getString("name"), actorDoc.getInteger("id"));
-            }
-        }
-
-        List<Document> actorData = new ArrayList<>();
-        for(String actorName : actorIdMap.keySet()){
-            //Filter by actor name
-            Bson filter = eq("name", actorName);
-
-            //Create a list of recording ids by searching the actors name and adding associated ids
-            List<Integer> recording_ids = new ArrayList<>();
-            originalCollection.find(filter).forEach(doc -> {
-                recording_ids.add(doc.getInteger("recording_id"));
+        MongoCollection<Document> newCollection = target.collection("Dim_Actors");
+        //Insert into the new actor collection
+        SurrogateKeys.Sequence keys = new SurrogateKeys.Sequence();
+        Map<Object, Object> ids = new HashMap<>();
+        try (BatchedWriter writer = BatchedWriter.forCollection(newCollection)) {
+            source.actorIds().forEach((actorName, actorId) -> {
+                Document actorEntry = keys.newEntry().append("id", actorId)
+                        .append("name", actorName);
+                if (WITH_RECORDING_IDS) {
+                    actorEntry.append("Movies", source.recordingIds().get(actorName));
+                }
+                writer.write(actorEntry);
+                ids.put(actorName, actorEntry.get("_id"));
             });
-
-            Document actorEntry = new Document("id", actorIdMap.get(actorName))
-                    .append("name", actorName);
-                    //.append("Movies", recording_ids);
-            actorData.add(actorEntry);
         }
-        //Insert into the new actor collection
-        newCollection.insertMany(actorData);
+        return ids;
     }
 
-    private static void createCategoriesCollection(MongoDatabase originalDB, MongoDatabase finalDB){
+    static Map<Object, Object> createCategoriesCollection(MongoDatabase originalDB, StagedBuild target){
         System.out.println("creating categories collection");
         MongoCollection<Document> originalCollection = originalDB.getCollection("Video_Categories");
-        MongoCollection<Document> newCollection = finalDB.getCollection("Dim_Categories");
-        newCollection.deleteMany(new Document());
-
-        List<Document> categoryData = new ArrayList<>();
-        for(Document categories : originalCollection.find()){
-            Document categoryEntry = new Document("category_id", categories.getInteger("id"))
-                    .append("name", categories.getString("name"));
-            categoryData.add(categoryEntry);
-        }
+        MongoCollection<Document> newCollection = target.collection("Dim_Categories");
         // Insert into the category collection
-        newCollection.insertMany(categoryData);
+        SurrogateKeys.Sequence keys = new SurrogateKeys.Sequence();
+        Map<Object, Object> ids = new HashMap<>();
+        try (BatchedWriter writer = BatchedWriter.forCollection(newCollection)) {
+            for(Document categories : originalCollection.find()){
+                Document categoryEntry = keys.newEntry().append("category_id", categories.getInteger("id"))
+                        .append("name", categories.getString("name"));
+                writer.write(categoryEntry);
+                // facts resolve category names, the first row of a duplicated name wins
+                ids.putIfAbsent(categoryEntry.get("name"), categoryEntry.get("_id"));
+            }
+        }
+        return ids;
     }
 
-    private static void createVideoRecordingCollection(MongoDatabase originalDB, MongoDatabase finalDB) {
+    /*
+    Writes Dim_Recordings during the one Video_Recordings pass, see SourceScan.scanRecordings.
+     */
+    static SourceScan.Recordings createVideoRecordingCollection(MongoDatabase originalDB, StagedBuild target) {
         System.out.println("creating recordings collection");
-        MongoCollection<Document> originalCollection = originalDB.getCollection("Video_Recordings");
-        MongoCollection<Document> newCollection = finalDB.getCollection("Dim_Recordings");
-        newCollection.deleteMany(new Document());
-
-        List<Document> recordingData = new ArrayList<>();
-        for (Document recordings : originalCollection.find()) {
-            Document recordingEntry = new Document("recording_id", recordings.getInteger("recording_id"))
-                    .append("title", recordings.getString("title"))
-                    .append("image_name", recordings.getString("image_name"))
-                    .append("duration", recordings.getInteger("duration"))
-                    .append("year_released", recordings.getInteger("year_released"))
-                    .append("stock_count", recordings.getInteger("stock_count"))
-                    .append("price", recordings.getInteger("price"));
-            recordingData.add(recordingEntry);
+        MongoCollection<Document> newCollection = target.collection("Dim_Recordings");
+        try (BatchedWriter writer = BatchedWriter.forCollection(newCollection)) {
+            return SourceScan.scanRecordings(originalDB.getCollection("Video_Recordings"), writer::write,
+                    recordingAttributeFields(), WITH_RECORDING_IDS);
         }
-        // Insert into the fact collection
-        newCollection.insertMany(recordingData);
+    }
+
+    /*
+    The Video_Recordings fields a fact is built from.
+     */
+    static List<String> recordingAttributeFields() {
+        List<String> fields = new ArrayList<>(List.of("recording_id", "rating", "category", "director"));
+        fields.addAll(WideFacts.recordingSourceFields(WideFacts.ATTRIBUTES));
+        return fields;
+    }
+
+    static Document recordingEntry(Document recordings) {
+        return new Document("recording_id", recordings.getInteger("recording_id"))
+                .append("title", recordings.getString("title"))
+                .append("image_name", recordings.getString("image_name"))
+                .append("duration", recordings.getInteger("duration"))
+                .append("year_released", recordings.getInteger("year_released"))
+                .append("stock_count", recordings.getInteger("stock_count"))
+                .append("price", recordings.getInteger("price"));
     }
 }
\ No newline at end of file
@@ -0,0 +1,216 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+Fills Video_Categories, Video_Recordings and Video_Actors with synthetic data of the shape Create reads, for load tests.
+Scale factor 1 is 10,000 recordings, 2,000 actors and 500 directors with casts of 1 - 9 actors (about 50,000
+Video_Actors rows), everything grows linearly with the scale factor.
+Actor appearances follow a Zipf distribution (-Dgen.actorSkew), category sizes too (-Dgen.categorySkew), so a few
+actors are in many recordings and a few categories hold most of them.
+The documents, _ids included, only depend on the settings: recordings are generated in chunks of CHUNK_SIZE, each from
+its own random stream seeded from the seed and the chunk number, and every _id is derived from the generated keys
+(category id, recording_id, recording_id * MAX_CAST + cast slot) instead of being assigned by the driver. The chunks are
+generated in parallel into shared BatchedWriters, so the insertion (natural) order differs between runs, the ETL reads
+the sources in _id order.
+ */
+public class DataGenerator {
+    private static final int RECORDINGS_PER_SCALE = 10_000;
+    private static final int ACTORS_PER_SCALE = 2_000;
+    private static final int DIRECTORS_PER_SCALE = 500;
+    private static final int MAX_CAST = 9;
+    private static final int CHUNK_SIZE = 10_000;
+    // part of the Settings document, bumped when the same settings generate different data (2: generated _ids)
+    private static final int GENERATOR_VERSION = 2;
+    private static final List<String> COLLECTIONS = List.of("Video_Categories", "Video_Recordings", "Video_Actors");
+    private static final List<String> CATEGORIES = List.of("Drama", "Comedy", "Action & Adventure", "Documentary", "Family",
+            "Horror", "Thriller", "Sci-Fi", "Romance", "Animation", "Musical", "Western", "Foreign", "Classic");
+    private static final List<String> RATINGS = List.of("G", "PG", "PG-13", "R", "NC-17");
+    private static final double[] RATING_WEIGHTS = {0.10, 0.25, 0.35, 0.25, 0.05};
+    private static final List<String> FIRST_NAMES = List.of("James", "Mary", "Robert", "Patricia", "John", "Jennifer",
+            "Michael", "Linda", "David", "Elizabeth", "William", "Barbara", "Richard", "Susan", "Joseph", "Jessica",
+            "Thomas", "Sarah", "Charles", "Karen", "Daniel", "Nancy", "Matthew", "Lisa", "Anthony", "Betty");
+    private static final List<String> LAST_NAMES = List.of("Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia",
+            "Miller", "Davis", "Rodriguez", "Martinez", "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Thomas",
+            "Taylor", "Moore", "Jackson", "Martin", "Lee", "Perez", "Thompson", "White", "Harris", "Clark");
+    private static final List<String> TITLE_WORDS = List.of("Midnight", "Return", "Last", "City", "Silent", "Golden",
+            "River", "Storm", "Shadow", "Summer", "Iron", "Secret", "Wild", "Broken", "Lost", "Crimson");
+
+    /*
+    Everything the generated data depends on.
+     */
+    record Settings(double scale, long seed, double actorSkew, double categorySkew) {
+        int recordings() {
+            return (int) Math.max(1, Math.round(RECORDINGS_PER_SCALE * scale));
+        }
+
+        int actors() {
+            return (int) Math.max(1, Math.round(ACTORS_PER_SCALE * scale));
+        }
+
+        int directors() {
+            return (int) Math.max(1, Math.round(DIRECTORS_PER_SCALE * scale));
+        }
+
+        Document toDocument() {
+            return new Document("scale", scale).append("seed", seed).append("actor_skew", actorSkew).append("category_skew", categorySkew)
+                    .append("generator", GENERATOR_VERSION);
+        }
+    }
+
+    public static void main(String[] args) {
+        // -Dgen.scale, -Dgen.seed, -Dgen.actorSkew and -Dgen.categorySkew (Zipf exponents, 0 is uniform),
+        // -Dgen.database (default Lab_3), -Dgen.drop=true replaces existing source collections
+        Settings settings = new Settings(
+                Double.parseDouble(System.getProperty("gen.scale", "1")),
+                Long.getLong("gen.seed", 42),
+                Double.parseDouble(System.getProperty("gen.actorSkew", "1.0")),
+                Double.parseDouble(System.getProperty("gen.categorySkew", "0.8")));
+        try (MongoClient mongoClient = DriverMetrics.createClient(System.getProperty("mongodb.uri"), "generate")) {
+            MongoDatabase sourceDB = mongoClient.getDatabase(System.getProperty("gen.database", "Lab_3"));
+            for (String collection : COLLECTIONS) {
+                if (!Boolean.getBoolean("gen.drop") && sourceDB.getCollection(collection).estimatedDocumentCount() > 0) {
+                    throw new IllegalStateException(sourceDB.getName() + "." + collection + " is not empty, use -Dgen.drop=true to replace it");
+                }
+            }
+            generate(sourceDB, settings);
+        }
+    }
+
+    static void generate(MongoDatabase sourceDB, Settings settings) {
+        System.out.println("generating " + sourceDB.getName() + " " + settings.toDocument().toJson() + ": " + settings.recordings()
+                + " recordings, " + settings.actors() + " actors, " + settings.directors() + " directors");
+        long start = System.nanoTime();
+        COLLECTIONS.forEach(collection -> sourceDB.getCollection(collection).drop());
+        try (BatchedWriter categories = BatchedWriter.forCollection(sourceDB.getCollection("Video_Categories"))) {
+            for (int i = 0; i < CATEGORIES.size(); i++) {
+                categories.write(new Document("_id", i + 1).append("id", i + 1).append("name", CATEGORIES.get(i)));
+            }
+        }
+
+        Zipf actorRanks = new Zipf(settings.actors(), settings.actorSkew());
+        Zipf categoryRanks = new Zipf(CATEGORIES.size(), settings.categorySkew());
+        // directors are mildly skewed, a few direct many recordings
+        Zipf directorRanks = new Zipf(settings.directors(), 0.5);
+        int chunks = (settings.recordings() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        // -Dgen.parallelism number of chunks generated at the same time
+        int parallelism = Integer.getInteger("gen.parallelism", Runtime.getRuntime().availableProcessors());
+        try (BatchedWriter recordings = BatchedWriter.forCollection(sourceDB.getCollection("Video_Recordings"));
+             BatchedWriter actors = BatchedWriter.forCollection(sourceDB.getCollection("Video_Actors"));
+             ExecutorService executor = Executors.newFixedThreadPool(parallelism)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                int first = chunk * CHUNK_SIZE + 1;
+                int last = Math.min(settings.recordings(), (chunk + 1) * CHUNK_SIZE);
+                SplittableRandom random = new SplittableRandom(settings.seed() * 1_000_003L + chunk);
+                futures.add(executor.submit(() -> generateChunk(first, last, random, actorRanks, categoryRanks, directorRanks,
+                        recordings, actors)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while generating " + sourceDB.getName(), e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        }
+        StarIndexes.buildSource(sourceDB);
+        System.out.println("generated " + sourceDB.getName() + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    private static void generateChunk(int first, int last, SplittableRandom random, Zipf actorRanks, Zipf categoryRanks,
+                                      Zipf directorRanks, BatchedWriter recordings, BatchedWriter actors) {
+        int[] cast = new int[MAX_CAST];
+        for (int recordingId = first; recordingId <= last; recordingId++) {
+            recordings.write(new Document("_id", recordingId).append("recording_id", recordingId)
+                    .append("title", TITLE_WORDS.get(random.nextInt(TITLE_WORDS.size())) + " "
+                            + TITLE_WORDS.get(random.nextInt(TITLE_WORDS.size())) + " " + recordingId)
+                    .append("image_name", recordingId + ".jpg")
+                    .append("duration", 70 + random.nextInt(120))
+                    .append("year_released", 1940 + random.nextInt(85))
+                    .append("stock_count", random.nextInt(5) == 0 ? 0 : 1 + random.nextInt(50))
+                    .append("price", 5 + random.nextInt(55))
+                    .append("rating", RATINGS.get(weighted(random, RATING_WEIGHTS)))
+                    .append("category", CATEGORIES.get(categoryRanks.sample(random)))
+                    .append("director", personName(directorRanks.sample(random) + FIRST_NAMES.size() * LAST_NAMES.size())));
+
+            int castSize = 1 + random.nextInt(MAX_CAST);
+            for (int i = 0; i < castSize; i++) {
+                int actor = actorRanks.sample(random);
+                // an actor appears once per recording, redraw a few times on a repeat and give up on the slot after that
+                for (int attempt = 0; attempt < 8 && contains(cast, i, actor); attempt++) {
+                    actor = actorRanks.sample(random);
+                }
+                if (contains(cast, i, actor)) {
+                    break;
+                }
+                cast[i] = actor;
+                actors.write(new Document("_id", (long) recordingId * MAX_CAST + i).append("id", actor + 1)
+                        .append("name", personName(actor)).append("recording_id", recordingId));
+            }
+        }
+    }
+
+    /*
+    A unique "First Last" name per index, with a number appended once the combinations run out.
+     */
+    private static String personName(int index) {
+        int combinations = FIRST_NAMES.size() * LAST_NAMES.size();
+        String name = FIRST_NAMES.get(index % FIRST_NAMES.size()) + " " + LAST_NAMES.get(index / FIRST_NAMES.size() % LAST_NAMES.size());
+        return index < combinations ? name : name + " " + (index / combinations + 1);
+    }
+
+    private static boolean contains(int[] values, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int weighted(SplittableRandom random, double[] weights) {
+        double target = random.nextDouble();
+        for (int i = 0; i < weights.length - 1; i++) {
+            target -= weights[i];
+            if (target < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    /*
+    Zipf distribution over ranks 0 .. n-1: P(rank k) is proportional to 1 / (k + 1)^exponent.
+    Sampling is a binary search in the cumulative weights, thread-safe since the table is never modified.
+     */
+    private static class Zipf {
+        private final double[] cumulative;
+
+        Zipf(int n, double exponent) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int k = 0; k < n; k++) {
+                sum += 1 / Math.pow(k + 1, exponent);
+                cumulative[k] = sum;
+            }
+        }
+
+        int sample(SplittableRandom random) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[cumulative.length - 1]);
+            return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+        }
+    }
+}
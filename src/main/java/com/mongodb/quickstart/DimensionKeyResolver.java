@@ -0,0 +1,59 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoCollection;
+import org.bson.Document;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Resolves natural keys (actor name, recording id, rating, ...) to values of a collection in memory.
+The resolver is filled from the key maps the builders produced while writing the dimension rows (or scanning the
+source), so no collection is read again. Those maps are already fully in memory, so the resolver has no size cap
+and no find() fallback: a key the builders never saw is an error. A null key is a key like any other, it resolves
+to the row written for null.
+Resolvers are shared by the parallel fact partitions, they are only read once filled.
+ */
+public class DimensionKeyResolver<V> {
+    private final MongoCollection<Document> collection;
+    private final String keyField;
+    private final Map<Object, V> cache;
+    private final LongAdder hits = new LongAdder();
+
+    private DimensionKeyResolver(MongoCollection<Document> collection, String keyField, Map<?, ? extends V> entries) {
+        this.collection = collection;
+        this.keyField = keyField;
+        this.cache = new HashMap<>(entries);
+    }
+
+    /*
+    Maps keyField -> _id of a dimension collection, keys holds the _id the builder gave every key.
+     */
+    static DimensionKeyResolver<Object> ids(MongoCollection<Document> collection, String keyField, Map<?, ?> keys) {
+        return new DimensionKeyResolver<>(collection, keyField, keys);
+    }
+
+    /*
+    Maps keyField -> projected document, e.g. recording_id -> {rating, category, director} of Video_Recordings,
+    documents holds those projections from the source scan.
+     */
+    static DimensionKeyResolver<Document> documents(MongoCollection<Document> collection, String keyField,
+                                                    Map<?, Document> documents) {
+        return new DimensionKeyResolver<>(collection, keyField, documents);
+    }
+
+    V resolve(Object naturalKey) {
+        V value = cache.get(naturalKey);
+        if (value == null) {
+            throw new IllegalStateException("No " + collection.getNamespace().getCollectionName()
+                    + " entry for " + keyField + "=" + naturalKey);
+        }
+        hits.increment();
+        return value;
+    }
+
+    String stats() {
+        return collection.getNamespace().getCollectionName() + " resolver: " + hits + " lookups, " + cache.size() + " keys";
+    }
+}
@@ -0,0 +1,388 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import org.bson.BsonArray;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.json.JsonWriterSettings;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/*
+Command and connection pool instrumentation of the MongoClients built by Connection, Create, Read and DataGenerator.
+Every driver command is attributed to the scope (ETL stage, Read query, ...) of the thread that sent it: scopes are
+opened with measure() and inherited by the threads started inside them, like the BatchedWriter batches of a stage.
+Per scope it records the wall time, and per scope and command the latency, round trips, failures, documents and
+BSON bytes sent and received, and the time spent waiting for a pooled connection. The bytes sent of insert, update
+and delete batches are estimated from the first document of the batch instead of encoding every document again,
+the reports call them bytes_sent_estimated.
+-Dmetrics=true turns it on, the reports <run>.json and <run>.prom (Prometheus text format) are written to -Dmetrics.dir
+when the JVM exits (once per run name, however many clients the run creates), so a long-running
+-Dcreate.mode=incremental reports when it is stopped.
+ */
+public class DriverMetrics implements CommandListener, ConnectionPoolListener {
+    private static final boolean ENABLED = Boolean.getBoolean("metrics");
+    // -Dmetrics.dir directory the reports are written to
+    private static final Path REPORT_DIR = Path.of(System.getProperty("metrics.dir", "metrics"));
+    private static final String UNSCOPED = "unscoped";
+    private static final InheritableThreadLocal<String> SCOPE = new InheritableThreadLocal<>();
+    private static final DriverMetrics INSTANCE = new DriverMetrics();
+    private static final Set<String> REPORTED_RUNS = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, ScopeStats> scopes = new ConcurrentHashMap<>();
+    private final Map<Integer, String> startedScopes = new ConcurrentHashMap<>();
+    private final LongAdder connectionsCreated = new LongAdder();
+    private final long start = System.nanoTime();
+
+    /*
+    Upper bounds of the latency histogram buckets in seconds, the last bucket is +Inf.
+     */
+    private static final double[] BUCKETS = {0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5,
+            1, 2.5, 5, 10, 30, 60};
+
+    private static class Histogram {
+        final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+        final LongAdder count = new LongAdder();
+        final LongAdder sumNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            double seconds = nanos / 1e9;
+            int bucket = 0;
+            while (bucket < BUCKETS.length && seconds > BUCKETS[bucket]) {
+                bucket++;
+            }
+            counts[bucket].increment();
+            count.increment();
+            sumNanos.add(nanos);
+        }
+
+        /*
+        Upper bound of the bucket holding the given quantile, in seconds (+Inf for the last bucket).
+         */
+        double quantile(double q) {
+            long total = count.sum();
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i].sum();
+                if (total > 0 && seen >= Math.ceil(q * total)) {
+                    return i < BUCKETS.length ? BUCKETS[i] : Double.POSITIVE_INFINITY;
+                }
+            }
+            return 0;
+        }
+    }
+
+    private static class CommandStats {
+        final Histogram latency = new Histogram();
+        final LongAdder failures = new LongAdder();
+        final LongAdder documentsSent = new LongAdder();
+        final LongAdder documentsReceived = new LongAdder();
+        final LongAdder bytesSent = new LongAdder();
+        final LongAdder bytesReceived = new LongAdder();
+    }
+
+    private static class ScopeStats {
+        final Histogram wallTime = new Histogram();
+        final Histogram poolWait = new Histogram();
+        final LongAdder poolCheckOutFailures = new LongAdder();
+        final Map<String, CommandStats> commands = new ConcurrentHashMap<>();
+    }
+
+    /*
+    A MongoClient for the connection string, instrumented and reporting as run when -Dmetrics=true.
+     */
+    static MongoClient createClient(String connectionString, String run) {
+        if (!ENABLED) {
+            return MongoClients.create(connectionString);
+        }
+        if (REPORTED_RUNS.add(run)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> report(run)));
+        }
+        return MongoClients.create(MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(connectionString))
+                .addCommandListener(INSTANCE)
+                .applyToConnectionPoolSettings(pool -> pool.addConnectionPoolListener(INSTANCE))
+                .build());
+    }
+
+    static void measure(String scope, Runnable work) {
+        measure(scope, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /*
+    Runs work with scope as the current scope of this thread and the threads it starts, and records its wall time.
+     */
+    static <T> T measure(String scope, Supplier<T> work) {
+        String outer = SCOPE.get();
+        SCOPE.set(scope);
+        long start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            if (ENABLED) {
+                INSTANCE.scope(scope).wallTime.record(System.nanoTime() - start);
+            }
+            SCOPE.set(outer);
+        }
+    }
+
+    /*
+    Writes <run>.json and <run>.prom and prints the scopes with the most round trips.
+     */
+    private static void report(String run) {
+        try {
+            Files.createDirectories(REPORT_DIR);
+            Files.writeString(REPORT_DIR.resolve(run + ".json"), INSTANCE.json(run).toJson(JsonWriterSettings.builder().indent(true).build()));
+            Files.writeString(REPORT_DIR.resolve(run + ".prom"), INSTANCE.prometheus(run));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the metrics report to " + REPORT_DIR, e);
+        }
+        System.out.println("driver metrics written to " + REPORT_DIR.resolve(run + ".json") + " and " + REPORT_DIR.resolve(run + ".prom"));
+        INSTANCE.scopes.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, ScopeStats> e) -> roundTrips(e.getValue())).reversed())
+                .limit(5)
+                .forEach(e -> System.out.println("  " + e.getKey() + ": " + roundTrips(e.getValue()) + " round trips"));
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        String scope = currentScope();
+        startedScopes.put(event.getRequestId(), scope);
+        CommandStats stats = command(scope, event.getCommandName());
+        BsonDocument command = event.getCommand();
+        String payload = switch (event.getCommandName()) {
+            case "insert" -> "documents";
+            case "update" -> "updates";
+            case "delete" -> "deletes";
+            default -> null;
+        };
+        // the command document is only valid during this callback
+        stats.bytesSent.add(size(command, payload));
+        if (payload != null) {
+            stats.documentsSent.add(count(command.get(payload)));
+        }
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        CommandStats stats = command(finishedScope(event.getRequestId()), event.getCommandName());
+        stats.latency.record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+        BsonDocument response = event.getResponse();
+        stats.bytesReceived.add(size(response));
+        if (response.isDocument("cursor")) {
+            BsonDocument cursor = response.getDocument("cursor");
+            stats.documentsReceived.add(count(cursor.containsKey("firstBatch") ? cursor.get("firstBatch") : cursor.get("nextBatch")));
+        }
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        CommandStats stats = command(finishedScope(event.getRequestId()), event.getCommandName());
+        stats.latency.record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+        stats.failures.increment();
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        scope(currentScope()).poolWait.record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        ScopeStats stats = scope(currentScope());
+        stats.poolWait.record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+        stats.poolCheckOutFailures.increment();
+    }
+
+    @Override
+    public void connectionCreated(ConnectionCreatedEvent event) {
+        connectionsCreated.increment();
+    }
+
+    private Document json(String run) {
+        Document scopesJson = new Document();
+        new TreeMap<>(scopes).forEach((name, scope) -> {
+            Document commandsJson = new Document();
+            new TreeMap<>(scope.commands).forEach((command, stats) -> commandsJson.append(command, new Document()
+                    .append("round_trips", stats.latency.count.sum())
+                    .append("failures", stats.failures.sum())
+                    .append("latency", histogramJson(stats.latency))
+                    .append("documents_sent", stats.documentsSent.sum())
+                    .append("documents_received", stats.documentsReceived.sum())
+                    .append("bytes_sent_estimated", stats.bytesSent.sum())
+                    .append("bytes_received", stats.bytesReceived.sum())));
+            scopesJson.append(name, new Document()
+                    .append("runs", scope.wallTime.count.sum())
+                    .append("wall_time", histogramJson(scope.wallTime))
+                    .append("round_trips", roundTrips(scope))
+                    .append("pool_wait", histogramJson(scope.poolWait))
+                    .append("pool_check_out_failures", scope.poolCheckOutFailures.sum())
+                    .append("commands", commandsJson));
+        });
+        return new Document("run", run)
+                .append("duration_seconds", (System.nanoTime() - start) / 1e9)
+                .append("connections_created", connectionsCreated.sum())
+                .append("scopes", scopesJson);
+    }
+
+    private static Document histogramJson(Histogram histogram) {
+        long count = histogram.count.sum();
+        return new Document("count", count)
+                .append("mean_seconds", count == 0 ? 0 : histogram.sumNanos.sum() / 1e9 / count)
+                .append("p50_seconds_le", histogram.quantile(0.50))
+                .append("p95_seconds_le", histogram.quantile(0.95))
+                .append("p99_seconds_le", histogram.quantile(0.99));
+    }
+
+    private String prometheus(String run) {
+        StringBuilder out = new StringBuilder();
+        Map<String, ScopeStats> sorted = new TreeMap<>(scopes);
+        header(out, "mongodb_scope_duration_seconds", "histogram", "Wall time of an ETL stage or Read query");
+        sorted.forEach((scope, stats) -> histogram(out, "mongodb_scope_duration_seconds", labels(run, scope, null), stats.wallTime));
+        header(out, "mongodb_command_duration_seconds", "histogram", "Latency of driver commands, one observation per round trip");
+        sorted.forEach((scope, stats) -> new TreeMap<>(stats.commands).forEach((command, commandStats) ->
+                histogram(out, "mongodb_command_duration_seconds", labels(run, scope, command), commandStats.latency)));
+        counter(out, sorted, run, "mongodb_command_failures_total", "Failed driver commands", stats -> stats.failures.sum());
+        counter(out, sorted, run, "mongodb_documents_sent_total", "Documents sent in insert, update and delete commands",
+                stats -> stats.documentsSent.sum());
+        counter(out, sorted, run, "mongodb_documents_received_total", "Documents received in cursor batches",
+                stats -> stats.documentsReceived.sum());
+        counter(out, sorted, run, "mongodb_bytes_sent_estimated_total",
+                "BSON bytes of the commands sent, insert, update and delete batches estimated from their first document",
+                stats -> stats.bytesSent.sum());
+        counter(out, sorted, run, "mongodb_bytes_received_total", "BSON bytes of the replies received", stats -> stats.bytesReceived.sum());
+        header(out, "mongodb_pool_wait_seconds", "histogram", "Time spent waiting to check a connection out of the pool");
+        sorted.forEach((scope, stats) -> histogram(out, "mongodb_pool_wait_seconds", labels(run, scope, null), stats.poolWait));
+        header(out, "mongodb_connections_created_total", "counter", "Connections opened by the driver");
+        out.append("mongodb_connections_created_total{run=\"").append(escape(run)).append("\"} ").append(connectionsCreated.sum()).append('\n');
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, Map<String, ScopeStats> scopes, String run, String name, String help,
+                                ToLongFunction<CommandStats> value) {
+        header(out, name, "counter", help);
+        scopes.forEach((scope, stats) -> new TreeMap<>(stats.commands).forEach((command, commandStats) ->
+                out.append(name).append('{').append(labels(run, scope, command)).append("} ").append(value.applyAsLong(commandStats)).append('\n')));
+    }
+
+    private static void histogram(StringBuilder out, String name, String labels, Histogram histogram) {
+        long cumulative = 0;
+        for (int i = 0; i < histogram.counts.length; i++) {
+            cumulative += histogram.counts[i].sum();
+            String le = i < BUCKETS.length ? String.valueOf(BUCKETS[i]) : "+Inf";
+            out.append(name).append("_bucket{").append(labels).append(",le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+        }
+        out.append(name).append("_sum{").append(labels).append("} ").append(histogram.sumNanos.sum() / 1e9).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(histogram.count.sum()).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String labels(String run, String scope, String command) {
+        String labels = "run=\"" + escape(run) + "\",scope=\"" + escape(scope) + "\"";
+        return command == null ? labels : labels + ",command=\"" + escape(command) + "\"";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static long roundTrips(ScopeStats scope) {
+        return scope.commands.values().stream().mapToLong(stats -> stats.latency.count.sum()).sum();
+    }
+
+    private static String currentScope() {
+        String scope = SCOPE.get();
+        return scope == null ? UNSCOPED : scope;
+    }
+
+    private String finishedScope(int requestId) {
+        String scope = startedScopes.remove(requestId);
+        return scope == null ? currentScope() : scope;
+    }
+
+    private ScopeStats scope(String name) {
+        return scopes.computeIfAbsent(name, n -> new ScopeStats());
+    }
+
+    private CommandStats command(String scope, String command) {
+        return scope(scope).commands.computeIfAbsent(command, c -> new CommandStats());
+    }
+
+    private static long count(BsonValue value) {
+        return value != null && value.isArray() ? value.asArray().size() : 0;
+    }
+
+    /*
+    Size of a command, the documents of its payload array are not encoded one by one: the first one is encoded and
+    counted for every document of the batch.
+     */
+    private static long size(BsonDocument command, String payload) {
+        if (payload == null || command instanceof RawBsonDocument || !command.isArray(payload)) {
+            return size(command);
+        }
+        BsonDocument withoutPayload = new BsonDocument();
+        command.forEach((field, value) -> {
+            if (!field.equals(payload)) {
+                withoutPayload.append(field, value);
+            }
+        });
+        BsonArray documents = command.getArray(payload);
+        if (documents.isEmpty()) {
+            return size(withoutPayload);
+        }
+        BsonValue first = documents.get(0);
+        long perDocument = first.isDocument() ? size(first.asDocument()) : 0;
+        return size(withoutPayload) + perDocument * documents.size();
+    }
+
+    private static long size(BsonDocument document) {
+        if (document instanceof RawBsonDocument raw) {
+            return raw.getByteBuffer().remaining();
+        }
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        new BsonDocumentCodec().encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+        return buffer.getPosition();
+    }
+}
@@ -0,0 +1,101 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Runs the client-side and the server-side ETL on the same source data, times both and checks they produce
+the same Lab_3_Star content. Dimensions are compared without their generated _id, facts are compared after
+resolving every foreign key back to its dimension's natural key.
+ */
+public class EtlComparison {
+    static void compare(MongoDatabase originalDB, MongoDatabase finalDB, boolean withRecordingIds) {
+        long start = System.nanoTime();
+        Create.buildClientSide(originalDB, finalDB);
+        long clientMillis = (System.nanoTime() - start) / 1_000_000;
+        Map<String, Map<Document, Integer>> clientOutput = snapshot(finalDB);
+
+        start = System.nanoTime();
+        ServerSideEtl.build(originalDB, finalDB, withRecordingIds);
+        long serverMillis = (System.nanoTime() - start) / 1_000_000;
+        Map<String, Map<Document, Integer>> serverOutput = snapshot(finalDB);
+
+        boolean identical = true;
+        for (String collection : clientOutput.keySet()) {
+            Map<Document, Integer> client = clientOutput.get(collection);
+            Map<Document, Integer> server = serverOutput.get(collection);
+            if (client.equals(server)) {
+                System.out.println(collection + ": identical (" + count(client) + " documents)");
+            } else {
+                identical = false;
+                System.out.println(collection + ": DIFFERENT (client " + count(client) + ", server " + count(server) + " documents)");
+                printDifference("only in client output", client, server);
+                printDifference("only in server output", server, client);
+            }
+        }
+        System.out.println("client-side ETL: " + clientMillis + " ms, server-side ETL: " + serverMillis + " ms"
+                + (serverMillis > 0 ? String.format(" (%.2fx)", (double) clientMillis / serverMillis) : ""));
+        if (!identical) {
+            throw new IllegalStateException("Client-side and server-side ETL outputs differ");
+        }
+    }
+
+    private static Map<String, Map<Document, Integer>> snapshot(MongoDatabase finalDB) {
+        Map<String, Map<Document, Integer>> output = new HashMap<>();
+        for (String dimension : StagedBuild.DIMENSIONS) {
+            output.put(dimension, multiset(finalDB.getCollection(dimension),
+                    List.of(Aggregates.project(new Document("_id", 0)))));
+        }
+        Document factProjection = new Document("_id", 0)
+                .append("actor", first("$actor.name"))
+                .append("recording", first("$recording.recording_id"))
+                .append("rating", first("$rating.rating"))
+                .append("category", first("$category.name"))
+                .append("director", first("$director.director"));
+        WideFacts.ATTRIBUTES.forEach(attribute -> factProjection.append(attribute.field(), 1));
+        output.put("Fact_Collection", multiset(finalDB.getCollection("Fact_Collection"), Arrays.asList(
+                Aggregates.lookup("Dim_Actors", "actor_id", "_id", "actor"),
+                Aggregates.lookup("Dim_Recordings", "recording_id", "_id", "recording"),
+                Aggregates.lookup("Dim_Ratings", "rating_id", "_id", "rating"),
+                Aggregates.lookup("Dim_Categories", "category_id", "_id", "category"),
+                Aggregates.lookup("Dim_Directors", "director_id", "_id", "director"),
+                Aggregates.project(factProjection)
+        )));
+        return output;
+    }
+
+    private static Map<Document, Integer> multiset(MongoCollection<Document> collection, List<Bson> pipeline) {
+        Map<Document, Integer> documents = new HashMap<>();
+        for (Document doc : collection.aggregate(pipeline).allowDiskUse(true)) {
+            documents.merge(doc, 1, Integer::sum);
+        }
+        return documents;
+    }
+
+    private static Document first(String arrayField) {
+        return new Document("$arrayElemAt", Arrays.asList(arrayField, 0));
+    }
+
+    private static int count(Map<Document, Integer> documents) {
+        return documents == null ? 0 : documents.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    private static void printDifference(String label, Map<Document, Integer> left, Map<Document, Integer> right) {
+        List<String> examples = new ArrayList<>();
+        left.forEach((doc, n) -> {
+            if (examples.size() < 5 && n > right.getOrDefault(doc, 0)) {
+                examples.add(doc.toJson());
+            }
+        });
+        examples.forEach(json -> System.out.println("  " + label + ": " + json));
+    }
+}
@@ -0,0 +1,39 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+
+import java.util.Date;
+
+import static com.mongodb.client.model.Filters.eq;
+
+/*
+The ETL run version of Lab_3_Star, kept in Etl_Metadata { _id: "etl_run", version, mode, completed_at }.
+Every swap of a full build and every change applied by the incremental mode increments it, so anything
+derived from Lab_3_Star (the rollup cube, cached query results) is current exactly when it was derived
+from the version stored here.
+ */
+public class EtlMetadata {
+    static final String COLLECTION = "Etl_Metadata";
+    static final String RUN_ID = "etl_run";
+
+    static long recordRun(MongoDatabase finalDB, String mode) {
+        Document run = metadata(finalDB).findOneAndUpdate(eq("_id", RUN_ID),
+                Updates.combine(Updates.inc("version", 1L), Updates.set("mode", mode), Updates.set("completed_at", new Date())),
+                new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+        return run.get("version", Number.class).longValue();
+    }
+
+    static long currentVersion(MongoDatabase finalDB) {
+        Document run = metadata(finalDB).find(eq("_id", RUN_ID)).first();
+        return run == null ? 0 : run.get("version", Number.class).longValue();
+    }
+
+    static MongoCollection<Document> metadata(MongoDatabase finalDB) {
+        return finalDB.getCollection(COLLECTION);
+    }
+}
@@ -0,0 +1,116 @@
+package com.mongodb.quickstart;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+Runs ETL stages as a dependency graph: every stage starts on its own virtual thread as soon as
+all the stages it depends on have finished. When the graph is done the time of each stage and
+the critical path (the chain of dependencies that finished last) are printed.
+ */
+public class EtlScheduler {
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+    private static class Stage {
+        final String name;
+        final Runnable task;
+        final List<String> dependsOn;
+        CompletableFuture<Void> future;
+        long startNanos;
+        long endNanos;
+
+        Stage(String name, Runnable task, List<String> dependsOn) {
+            this.name = name;
+            this.task = task;
+            this.dependsOn = dependsOn;
+        }
+
+        long millis() {
+            return (endNanos - startNanos) / 1_000_000;
+        }
+    }
+
+    /*
+    Stages must be declared after the stages they depend on.
+     */
+    EtlScheduler stage(String name, Runnable task, String... dependsOn) {
+        for (String dependency : dependsOn) {
+            if (!stages.containsKey(dependency)) {
+                throw new IllegalArgumentException("Stage " + name + " depends on undeclared stage " + dependency);
+            }
+        }
+        if (stages.putIfAbsent(name, new Stage(name, task, Arrays.asList(dependsOn))) != null) {
+            throw new IllegalArgumentException("Duplicate stage " + name);
+        }
+        return this;
+    }
+
+    void run() {
+        long runStart = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Stage stage : stages.values()) {
+                CompletableFuture<?>[] dependencies = stage.dependsOn.stream()
+                        .map(dependency -> stages.get(dependency).future)
+                        .toArray(CompletableFuture[]::new);
+                stage.future = CompletableFuture.allOf(dependencies).thenRunAsync(() -> {
+                    stage.startNanos = System.nanoTime();
+                    try {
+                        DriverMetrics.measure(stage.name, stage.task);
+                    } finally {
+                        stage.endNanos = System.nanoTime();
+                    }
+                }, executor);
+            }
+            try {
+                CompletableFuture.allOf(stages.values().stream().map(s -> s.future).toArray(CompletableFuture[]::new)).join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        } finally {
+            report(runStart);
+        }
+    }
+
+    private void report(long runStart) {
+        System.out.println("ETL stage timings:");
+        Stage last = null;
+        for (Stage stage : stages.values()) {
+            if (stage.endNanos == 0) {
+                System.out.println(String.format("  %-28s not run", stage.name));
+                continue;
+            }
+            System.out.println(String.format("  %-28s start +%6d ms  took %6d ms", stage.name,
+                    (stage.startNanos - runStart) / 1_000_000, stage.millis()));
+            if (last == null || stage.endNanos > last.endNanos) {
+                last = stage;
+            }
+        }
+        if (last == null) {
+            return;
+        }
+        // walk back from the stage that finished last through the dependency that released it
+        List<String> criticalPath = new ArrayList<>();
+        for (Stage stage = last; stage != null; ) {
+            criticalPath.add(stage.name + " (" + stage.millis() + " ms)");
+            Stage latest = null;
+            for (String dependency : stage.dependsOn) {
+                Stage candidate = stages.get(dependency);
+                if (latest == null || candidate.endNanos > latest.endNanos) {
+                    latest = candidate;
+                }
+            }
+            stage = latest;
+        }
+        Collections.reverse(criticalPath);
+        System.out.println("critical path: " + String.join(" -> ", criticalPath)
+                + ", total " + (last.endNanos - runStart) / 1_000_000 + " ms");
+    }
+}
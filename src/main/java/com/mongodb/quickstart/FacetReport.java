@@ -0,0 +1,271 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Facet;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UnwindOptions;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/*
+Answers the selected Read queries (-Dreport.queries, default every query, with the StarQueries defaults) as one report
+from a single aggregation over Fact_Collection: the facts are reduced to distinct (category, recording) pairs carrying
+their actors, the pairs are joined to Dim_Categories and Dim_Recordings once, then one $facet branch per query
+finishes it the way its Read pipeline does.
+The whole $facet result is one document, limited to 16 MB. A branch whose estimated rows (collStats of the dimensions
+it returns) do not fit into -Dreport.maxFacetBytes runs as its own Read pipeline instead, and if the server still
+rejects the result as too large the largest branch left is moved out and the report retried.
+The report is timed against asking the same queries one after another (-Dreport.iterations runs of each, alternated),
+after one run of each that checks the answers match.
+ */
+public class FacetReport {
+    private static final int ITERATIONS = Integer.getInteger("report.iterations", 5);
+    // BSONObjectTooLarge, and the $facet intermediate size limit
+    private static final Set<Integer> TOO_LARGE = Set.of(10334, 4031700);
+
+    private final MongoCollection<Document> fact;
+    private final MongoDatabase finalDB;
+    private final PipelineQueries separate;
+    private final List<String> inFacet = new ArrayList<>();
+    private final Map<String, Long> estimates = new LinkedHashMap<>();
+
+    FacetReport(MongoDatabase finalDB, List<String> queries, long maxFacetBytes) {
+        this.finalDB = finalDB;
+        this.fact = finalDB.getCollection("Fact_Collection");
+        this.separate = new PipelineQueries(finalDB);
+        long planned = 0;
+        for (String query : queries) {
+            long estimate = estimatedBytes(query);
+            estimates.put(query, estimate);
+            if (planned + estimate <= maxFacetBytes) {
+                inFacet.add(query);
+                planned += estimate;
+            }
+        }
+    }
+
+    static void run(MongoDatabase finalDB) {
+        List<String> queries = System.getProperty("report.queries") == null
+                ? new ArrayList<>(StarQueriesCheck.QUERIES.keySet())
+                : Arrays.stream(System.getProperty("report.queries").split(",")).map(String::trim).toList();
+        for (String query : queries) {
+            if (!StarQueriesCheck.QUERIES.containsKey(query)) {
+                throw new IllegalArgumentException("Unknown query in report.queries: " + query);
+            }
+        }
+        // -Dreport.maxFacetBytes estimated size of the $facet result document, kept below the 16 MB BSON limit
+        FacetReport report = new FacetReport(finalDB, queries, Long.getLong("report.maxFacetBytes", 12L << 20));
+
+        // one run of each form first, it warms the caches and checks the answers
+        Map<String, Object> expected = DriverMetrics.measure("sequential report", report::sequential);
+        Map<String, Object> actual = DriverMetrics.measure("facet report", report::report);
+        report.printPlan();
+        List<String> different = new ArrayList<>();
+        expected.forEach((name, answer) -> {
+            if (!Objects.equals(answer, actual.get(name))) {
+                System.out.println(name + ": DIFFERENT\n  sequential " + answer + "\n  facet      " + actual.get(name));
+                different.add(name);
+            }
+        });
+
+        long[] sequentialTimes = new long[ITERATIONS];
+        long[] facetTimes = new long[ITERATIONS];
+        // alternate both forms so caching effects hit them alike
+        for (int i = 0; i < ITERATIONS; i++) {
+            sequentialTimes[i] = time(() -> DriverMetrics.measure("sequential report", report::sequential));
+            facetTimes[i] = time(() -> DriverMetrics.measure("facet report", report::report));
+        }
+        System.out.println(String.format("%-10s %12s %12s", "report", "median", "mean"));
+        System.out.println(String.format("%-10s %9.1f ms %9.1f ms", "sequential", median(sequentialTimes) / 1e6, mean(sequentialTimes) / 1e6));
+        System.out.println(String.format("%-10s %9.1f ms %9.1f ms", "facet", median(facetTimes) / 1e6, mean(facetTimes) / 1e6));
+        System.out.println(String.format("speedup %.2fx, %s", median(facetTimes) == 0 ? 0 : (double) median(sequentialTimes) / median(facetTimes),
+                different.isEmpty() ? "all " + expected.size() + " answers match" : "answers differ for " + different));
+        if (!different.isEmpty()) {
+            throw new IllegalStateException("The $facet report returned different answers than the Read pipelines for " + different);
+        }
+    }
+
+    /*
+    Every selected query as its own Read pipeline, one after another.
+     */
+    Map<String, Object> sequential() {
+        Map<String, Object> answers = new LinkedHashMap<>();
+        estimates.keySet().forEach(name -> answers.put(name, StarQueriesCheck.QUERIES.get(name).apply(separate)));
+        return answers;
+    }
+
+    /*
+    The facet branches in one aggregation, the rest as separate Read pipelines.
+     */
+    Map<String, Object> report() {
+        Map<String, Object> answers = new LinkedHashMap<>();
+        Document branches = null;
+        while (branches == null && !inFacet.isEmpty()) {
+            try {
+                branches = fact.aggregate(pipeline(inFacet)).allowDiskUse(true).first();
+            } catch (MongoCommandException e) {
+                if (!TOO_LARGE.contains(e.getErrorCode())) {
+                    throw e;
+                }
+                // the estimates were too low, keep the largest branch out of the $facet from now on
+                String largest = inFacet.stream().max(Comparator.comparing(estimates::get)).orElseThrow();
+                System.out.println("$facet result too large (" + e.getErrorCodeName() + "), " + largest + " runs separately");
+                inFacet.remove(largest);
+            }
+        }
+        for (String name : estimates.keySet()) {
+            answers.put(name, branches != null && inFacet.contains(name)
+                    ? answer(name, branches.getList(name, Document.class))
+                    : StarQueriesCheck.QUERIES.get(name).apply(separate));
+        }
+        return answers;
+    }
+
+    private void printPlan() {
+        estimates.forEach((name, estimate) -> System.out.println(String.format("  %-8s ~%8d KB  %s", name, estimate / 1024,
+                inFacet.contains(name) ? "$facet branch" : "separate pipeline")));
+    }
+
+    /*
+    Shared stages once, then one branch per query. The pairs are { _id: { category_id, recording_id }, actors,
+    category_names, recordings: [{ price, stock_count }] }, an empty category_names or recordings is a missing dimension row.
+     */
+    private static List<Bson> pipeline(List<String> queries) {
+        List<Bson> pipeline = new ArrayList<>(Arrays.asList(
+                // null keeps facts without an actor_id, query9 counts them as one actor like its Read pipeline
+                Aggregates.group(new Document("category_id", "$category_id").append("recording_id", "$recording_id"),
+                        Accumulators.addToSet("actors", new Document("$ifNull", Arrays.asList("$actor_id", null)))),
+                Aggregates.lookup("Dim_Categories", "_id.category_id", "_id", "categories"),
+                Aggregates.lookup("Dim_Recordings", "_id.recording_id", "_id", "recordings"),
+                Aggregates.project(Projections.fields(
+                        Projections.include("actors", "recordings.price", "recordings.stock_count"),
+                        Projections.computed("category_names", "$categories.name")))
+        ));
+        List<Facet> facets = new ArrayList<>();
+        for (String query : queries) {
+            facets.add(new Facet(query, branch(query)));
+        }
+        pipeline.add(Aggregates.facet(facets));
+        return pipeline;
+    }
+
+    private static List<Bson> branch(String query) {
+        return switch (query) {
+            case "query3" -> recordingsPerCategory(List.of());
+            case "query4" -> recordingsPerCategory(List.of(Filters.gt("recordings.stock_count", StarQueries.DEFAULT_MIN_STOCK)));
+            case "query5" -> actorCategories(false, List.of());
+            case "query6" -> actorCategories(false, List.of(Read.query6Filter()));
+            case "query7" -> actorCategories(true, List.of(Read.query7Filter(StarQueries.DEFAULT_EXCLUDED_CATEGORY)));
+            case "query8" -> actorCategories(true, List.of(Read.query8Filter(StarQueries.DEFAULT_REQUIRED_CATEGORIES)));
+            case "query9" -> Arrays.asList(
+                    Aggregates.match(Filters.and(Filters.eq("category_names", StarQueries.DEFAULT_PRICE_CATEGORY),
+                            Filters.gt("recordings.price", StarQueries.DEFAULT_MIN_PRICE))),
+                    Aggregates.unwind("$actors"),
+                    Aggregates.group("$actors"),
+                    Aggregates.group(null, Accumulators.sum("totalActors", 1)));
+            default -> throw new IllegalArgumentException("Unknown query: " + query);
+        };
+    }
+
+    /*
+    Each pair is one recording of one category, so counting the pairs with a recording row counts the recordings.
+    Output matches Read: { _id: { _id: category _id, name }, movieCount }.
+     */
+    private static List<Bson> recordingsPerCategory(List<Bson> recordingFilter) {
+        List<Bson> filters = new ArrayList<>(List.of(Filters.exists("recordings.0"), Filters.exists("category_names.0")));
+        filters.addAll(recordingFilter);
+        return Arrays.asList(
+                Aggregates.match(Filters.and(filters)),
+                Aggregates.group("$_id.category_id", Accumulators.sum("movieCount", 1),
+                        Accumulators.first("name", new Document("$arrayElemAt", Arrays.asList("$category_names", 0)))),
+                Aggregates.project(new Document("_id", new Document("_id", "$_id").append("name", "$name")).append("movieCount", 1)));
+    }
+
+    /*
+    Same steps as Read.actorCategoriesPipeline after its Dim_Categories join, from the pairs' actors.
+    Output matches Read: { _id: actor name, categories }.
+     */
+    private static List<Bson> actorCategories(boolean unwindCategories, List<Bson> categoriesFilter) {
+        List<Bson> branch = new ArrayList<>(Arrays.asList(
+                Aggregates.unwind("$actors"),
+                Aggregates.group(new Document("actor_id", "$actors").append("category_id", "$_id.category_id"),
+                        Accumulators.first("categories", "$category_names"))
+        ));
+        if (unwindCategories) {
+            branch.add(Aggregates.unwind("$categories", new UnwindOptions().preserveNullAndEmptyArrays(false)));
+        }
+        branch.addAll(Arrays.asList(
+                Aggregates.group("$_id.actor_id", Accumulators.addToSet("categories", "$categories")),
+                Aggregates.lookup("Dim_Actors", "_id", "_id", "actor"),
+                Aggregates.unwind("$actor", new UnwindOptions().preserveNullAndEmptyArrays(false)),
+                Aggregates.project(new Document("_id", "$actor.name").append("categories", 1))
+        ));
+        branch.addAll(categoriesFilter);
+        return branch;
+    }
+
+    private static Object answer(String query, List<Document> rows) {
+        return switch (query) {
+            case "query3", "query4" -> PipelineQueries.countsPerCategory(rows);
+            case "query5", "query6", "query7", "query8" -> PipelineQueries.categoriesPerActor(rows);
+            default -> PipelineQueries.totalActors(rows.isEmpty() ? null : rows.get(0));
+        };
+    }
+
+    /*
+    Upper bound of the bytes a branch adds to the $facet result: at most one row per category, or per actor carrying
+    every category name.
+     */
+    private long estimatedBytes(String query) {
+        return switch (query) {
+            case "query3", "query4" -> {
+                Document categories = stats("Dim_Categories");
+                yield number(categories, "count") * (number(categories, "avgObjSize") + 32);
+            }
+            case "query9" -> 64;
+            default -> {
+                Document actors = stats("Dim_Actors");
+                yield number(actors, "count") * (number(actors, "avgObjSize") + number(stats("Dim_Categories"), "size") + 32);
+            }
+        };
+    }
+
+    private Document stats(String collection) {
+        return finalDB.runCommand(new Document("collStats", collection));
+    }
+
+    private static long number(Document document, String field) {
+        Object value = document.get(field);
+        return value instanceof Number number ? number.longValue() : 0;
+    }
+
+    private static long time(Runnable report) {
+        long start = System.nanoTime();
+        report.run();
+        return System.nanoTime() - start;
+    }
+
+    private static long median(long[] times) {
+        long[] sorted = Arrays.copyOf(times, times.length);
+        Arrays.sort(sorted);
+        return sorted.length == 0 ? 0 : sorted[sorted.length / 2];
+    }
+
+    private static double mean(long[] times) {
+        return Arrays.stream(times).average().orElse(0);
+    }
+}
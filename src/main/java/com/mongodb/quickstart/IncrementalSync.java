@@ -0,0 +1,305 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.FullDocumentBeforeChange;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.mongodb.client.model.Filters.eq;
+
+/*
+Keeps Lab_3_Star up to date by applying the inserts, updates and deletes of the Lab_3 source collections
+as they happen instead of rebuilding everything.
+The change stream resume token is saved in Lab_3_Star.Etl_Metadata after every applied event, so a restart
+continues from the last applied change. Without a saved token the stream is opened first and a full
+client-side build is run, every change made during that build is then replayed on top of it.
+Dimension rows are never removed when their last fact goes away, the next full rebuild drops them.
+ */
+public class IncrementalSync {
+    private static final List<String> SOURCES = Arrays.asList("Video_Actors", "Video_Recordings", "Video_Categories");
+    private static final String RESUME_TOKEN_ID = "change_stream";
+    // -Dcreate.rollup.refreshSeconds minimum time between two rollup rebuilds of the incremental mode
+    private static final long ROLLUP_REFRESH_SECONDS = Long.getLong("create.rollup.refreshSeconds", 60);
+
+    private final MongoDatabase originalDB;
+    private final MongoCollection<Document> metadata;
+    private final MongoCollection<Document> videoRecordings;
+    private final MongoCollection<Document> fact;
+    private final MongoCollection<Document> dimActors;
+    private final MongoCollection<Document> dimRecordings;
+    private final MongoCollection<Document> dimRatings;
+    private final MongoCollection<Document> dimCategories;
+    private final MongoCollection<Document> dimDirectors;
+    private final MongoDatabase finalDB;
+    private final Map<String, SurrogateKeys.Sequence> keys = new HashMap<>();
+    // ETL run version the key sequences were seeded for, a full build or rollback in between replaces the dimensions
+    private long keysVersion = -1;
+    private List<WideFacts.Attribute> wideAttributes = List.of();
+    private BsonDocument lastSavedToken;
+    private boolean rollupDirty;
+    private long lastRollupRefresh = System.nanoTime();
+
+    IncrementalSync(MongoDatabase originalDB, MongoDatabase finalDB) {
+        this.originalDB = originalDB;
+        this.finalDB = finalDB;
+        this.metadata = finalDB.getCollection("Etl_Metadata");
+        this.videoRecordings = originalDB.getCollection("Video_Recordings");
+        this.fact = finalDB.getCollection("Fact_Collection");
+        this.dimActors = finalDB.getCollection("Dim_Actors");
+        this.dimRecordings = finalDB.getCollection("Dim_Recordings");
+        this.dimRatings = finalDB.getCollection("Dim_Ratings");
+        this.dimCategories = finalDB.getCollection("Dim_Categories");
+        this.dimDirectors = finalDB.getCollection("Dim_Directors");
+    }
+
+    void run() {
+        enablePreImages();
+        StarIndexes.buildSource(originalDB);
+        StarIndexes.buildAll(finalDB);
+        Document saved = metadata.find(eq("_id", RESUME_TOKEN_ID)).first();
+        var changeStream = originalDB.watch(List.of(Aggregates.match(Filters.in("ns.coll", SOURCES))))
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .fullDocumentBeforeChange(FullDocumentBeforeChange.WHEN_AVAILABLE);
+        if (saved != null) {
+            System.out.println("resuming change stream from saved token");
+            changeStream = changeStream.resumeAfter(saved.get("resume_token", Document.class).toBsonDocument());
+        }
+
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = changeStream.cursor()) {
+            if (saved == null) {
+                System.out.println("no resume token found, running a full build first");
+                saveResumeToken(cursor.getResumeToken());
+                Create.buildClientSide(originalDB, finalDB);
+            }
+            // keep the facts as wide as the build that produced the live Fact_Collection
+            wideAttributes = WideFacts.attributes(WideFacts.embedded(finalDB));
+            System.out.println("watching " + SOURCES + " for changes");
+            while (true) {
+                ChangeStreamDocument<Document> change = cursor.tryNext();
+                if (change == null) {
+                    // idle: still move the saved position forward with the post batch resume token
+                    saveResumeToken(cursor.getResumeToken());
+                    refreshRollupIfDue();
+                    continue;
+                }
+                reseedKeysIfRebuilt();
+                DriverMetrics.measure("apply " + change.getNamespace().getCollectionName(), () -> apply(change));
+                saveResumeToken(change.getResumeToken());
+                keysVersion = EtlMetadata.recordRun(finalDB, "incremental");
+                rollupDirty = true;
+            }
+        }
+    }
+
+    private void apply(ChangeStreamDocument<Document> change) {
+        String collection = change.getNamespace().getCollectionName();
+        Document after = change.getFullDocument();
+        Document before = change.getFullDocumentBeforeChange();
+        switch (change.getOperationType()) {
+            case INSERT, UPDATE, REPLACE -> {
+                if (after == null) {
+                    // the document was deleted again before the update lookup, its delete event follows
+                    return;
+                }
+                switch (collection) {
+                    case "Video_Actors" -> upsertFact(after);
+                    case "Video_Recordings" -> upsertRecording(after);
+                    case "Video_Categories" -> upsertCategory(after);
+                }
+            }
+            case DELETE -> {
+                switch (collection) {
+                    case "Video_Actors" -> fact.deleteOne(eq("_id", change.getDocumentKey().get("_id")));
+                    case "Video_Recordings" -> {
+                        if (before == null) {
+                            System.out.println("skipping Video_Recordings delete without a pre-image: " + change.getDocumentKey().toJson());
+                            return;
+                        }
+                        Document recording = dimRecordings.findOneAndDelete(eq("recording_id", before.getInteger("recording_id")));
+                        if (recording != null) {
+                            fact.deleteMany(eq("recording_id", recording.get("_id")));
+                        }
+                    }
+                    case "Video_Categories" -> {
+                        if (before == null) {
+                            System.out.println("skipping Video_Categories delete without a pre-image: " + change.getDocumentKey().toJson());
+                            return;
+                        }
+                        Document category = dimCategories.findOneAndDelete(eq("category_id", before.getInteger("id")));
+                        if (category != null) {
+                            updateWideFacts("Dim_Categories", category, true);
+                        }
+                    }
+                }
+            }
+            default -> System.out.println("ignoring " + change.getOperationType().getValue() + " on " + collection);
+        }
+    }
+
+    private void upsertFact(Document actor) {
+        int recordingId = actor.getInteger("recording_id");
+        Document recording = videoRecordings.find(eq("recording_id", recordingId)).first();
+        if (recording == null) {
+            System.out.println("skipping Video_Actors " + actor.get("_id") + ": no Video_Recordings entry for recording_id=" + recordingId);
+            return;
+        }
+        Document factEntry = new Document("_id", actor.get("_id"))
+                .append("actor_id", dimensionId(dimActors, "name", actor.getString("name"), new Document("id", actor.getInteger("id"))))
+                .append("recording_id", dimensionId(dimRecordings, "recording_id", recordingId, Create.recordingEntry(recording)))
+                .append("rating_id", dimensionId(dimRatings, "rating", recording.getString("rating"), new Document()))
+                .append("category_id", dimensionId(dimCategories, "name", recording.getString("category"), new Document()))
+                .append("director_id", dimensionId(dimDirectors, "director", recording.getString("director"), new Document()));
+        WideFacts.embed(factEntry, wideAttributes, actor, recording);
+        fact.replaceOne(eq("_id", factEntry.get("_id")), factEntry, new ReplaceOptions().upsert(true));
+    }
+
+    /*
+    Writes the recording's Dim_Recordings entry and re-points existing facts at its current rating, category and director,
+    wide facts also get the recording's current attribute values.
+     */
+    private Object upsertRecording(Document recording) {
+        Document entry = Create.recordingEntry(recording);
+        Document dimension = upsertDimension(dimRecordings, eq("recording_id", entry.getInteger("recording_id")), entry, new Document());
+        Object recordingId = dimension.get("_id");
+        List<Bson> updates = new ArrayList<>(List.of(
+                Updates.set("rating_id", dimensionId(dimRatings, "rating", recording.getString("rating"), new Document())),
+                Updates.set("category_id", dimensionId(dimCategories, "name", recording.getString("category"), new Document())),
+                Updates.set("director_id", dimensionId(dimDirectors, "director", recording.getString("director"), new Document()))));
+        for (WideFacts.Attribute attribute : wideAttributes) {
+            if (attribute.source().equals("Video_Recordings")) {
+                updates.add(Updates.set(attribute.field(), recording.get(attribute.sourceField())));
+            }
+        }
+        fact.updateMany(eq("recording_id", recordingId), Updates.combine(updates));
+        return recordingId;
+    }
+
+    private void upsertCategory(Document category) {
+        Document dimension = upsertDimension(dimCategories, eq("category_id", category.getInteger("id")),
+                new Document("name", category.getString("name")), new Document());
+        updateWideFacts("Dim_Categories", dimension, false);
+    }
+
+    /*
+    Copies the attributes of a changed dimension row into the wide facts that reference it. The attributes of a
+    deleted row are removed, so its facts drop out of the lookup-free queries like they drop out of the joins.
+     */
+    private void updateWideFacts(String dimensionName, Document dimension, boolean deleted) {
+        for (WideFacts.Attribute attribute : wideAttributes) {
+            if (attribute.dimension().equals(dimensionName)) {
+                fact.updateMany(eq(attribute.foreignKey(), dimension.get("_id")), deleted ? Updates.unset(attribute.field())
+                        : Updates.set(attribute.field(), dimension.get(attribute.dimensionField())));
+            }
+        }
+    }
+
+    /*
+    _id of the dimension row whose keyField equals value, inserted with the extra fields when it does not exist yet.
+     */
+    private Object dimensionId(MongoCollection<Document> dimension, String keyField, Object value, Document onInsert) {
+        Document insert = new Document(keyField, value);
+        insert.putAll(onInsert);
+        return upsertDimension(dimension, eq(keyField, value), new Document(), insert).get("_id");
+    }
+
+    /*
+    Sets the fields of the dimension row matching filter, a row inserted by the upsert also gets the onInsert fields
+    and the next surrogate key of the dimension.
+     */
+    private Document upsertDimension(MongoCollection<Document> dimension, Bson filter, Document set, Document onInsert) {
+        try {
+            return tryUpsertDimension(dimension, filter, set, onInsert);
+        } catch (MongoCommandException e) {
+            if (e.getErrorCode() != 11000) {
+                throw e;
+            }
+            // the dimension was rebuilt behind our back and the pending key is taken, continue after its highest key
+            System.out.println("duplicate key in " + dimension.getNamespace().getCollectionName() + ", re-reading its key sequence");
+            keys.remove(dimension.getNamespace().getCollectionName());
+            return tryUpsertDimension(dimension, filter, set, onInsert);
+        }
+    }
+
+    private Document tryUpsertDimension(MongoCollection<Document> dimension, Bson filter, Document set, Document onInsert) {
+        SurrogateKeys.Sequence sequence = keys.computeIfAbsent(dimension.getNamespace().getCollectionName(),
+                name -> SurrogateKeys.Sequence.continuing(dimension));
+        Document insert = sequence.pendingEntry();
+        insert.putAll(onInsert);
+        Document update = new Document();
+        if (!set.isEmpty()) {
+            update.append("$set", set);
+        }
+        if (!insert.isEmpty()) {
+            update.append("$setOnInsert", insert);
+        }
+        Document row = dimension.findOneAndUpdate(filter, update, new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+        sequence.confirm(row);
+        return row;
+    }
+
+    /*
+    A full build or a rollback run while the stream was stopped or next to it replaces the dimensions and moves the ETL
+    run version, the cached key sequences are then read again from the live dimensions.
+     */
+    private void reseedKeysIfRebuilt() {
+        long current = EtlMetadata.currentVersion(finalDB);
+        if (current != keysVersion) {
+            keys.clear();
+            keysVersion = current;
+        }
+    }
+
+    /*
+    Every applied change makes the rollup cube and the category bitmaps stale (Read falls back to the live joins), they are rebuilt
+    when the stream is idle and at least ROLLUP_REFRESH_SECONDS passed since the last rebuild.
+     */
+    private void refreshRollupIfDue() {
+        if (rollupDirty && System.nanoTime() - lastRollupRefresh >= ROLLUP_REFRESH_SECONDS * 1_000_000_000L) {
+            DriverMetrics.measure("rollup cube", () -> RollupCube.refresh(finalDB));
+            DriverMetrics.measure("category bitmaps", () -> CategoryBitmaps.build(finalDB));
+            rollupDirty = false;
+            lastRollupRefresh = System.nanoTime();
+        }
+    }
+
+    private void saveResumeToken(BsonDocument token) {
+        if (token == null || token.equals(lastSavedToken)) {
+            return;
+        }
+        metadata.updateOne(eq("_id", RESUME_TOKEN_ID), Updates.set("resume_token", token), new UpdateOptions().upsert(true));
+        lastSavedToken = token;
+    }
+
+    /*
+    Deletes only carry the _id of the removed source document, the natural keys come from the pre-image (MongoDB 6.0+).
+     */
+    private void enablePreImages() {
+        for (String source : SOURCES) {
+            try {
+                originalDB.runCommand(new Document("collMod", source)
+                        .append("changeStreamPreAndPostImages", new Document("enabled", true)));
+            } catch (MongoCommandException e) {
+                System.out.println("could not enable pre-images on " + source + ": " + e.getErrorMessage());
+            }
+        }
+    }
+}
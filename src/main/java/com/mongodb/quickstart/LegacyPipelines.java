@@ -0,0 +1,208 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UnwindOptions;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+The original dimension-first forms of Read.query3 - query8: they start from a dimension and $lookup the
+whole matching slice of Fact_Collection into one array per dimension row.
+Kept to benchmark and verify the fact-first pipelines of Read against, see QueryBenchmark.
+ */
+public class LegacyPipelines {
+
+    static List<Read.Query> queries() {
+        return Arrays.asList(
+                new Read.Query("query3", "Dim_Categories", query3Pipeline()),
+                new Read.Query("query4", "Dim_Categories", query4Pipeline()),
+                new Read.Query("query5", "Dim_Actors", query5Pipeline()),
+                new Read.Query("query6", "Dim_Actors", query6Pipeline()),
+                new Read.Query("query7", "Dim_Actors", query7Pipeline()),
+                new Read.Query("query8", "Dim_Actors", query8Pipeline()));
+    }
+
+    /*
+    List the number of videos for each video category.
+     */
+    static List<Bson> query3Pipeline(){
+        return Arrays.asList(
+                Aggregates.lookup(
+                        "Fact_Collection",
+                        "_id",
+                        "category_id",
+                        "facts"
+                ),
+                Aggregates.lookup(
+                        "Dim_Recordings",
+                        "facts.recording_id",
+                        "_id",
+                        "recordings"
+                ),
+                Aggregates.unwind("$recordings", new UnwindOptions().preserveNullAndEmptyArrays(false)),
+                Aggregates.group(new Document("_id", "$_id").append("name", "$name"), // Group by both `_id` and `category_name`
+                        Accumulators.sum("movieCount", 1))
+        );
+    }
+
+    /*
+    List the number of videos for each video category where the inventory is non-zero
+    inventory is in recording
+    categorys are in category
+     */
+    static List<Bson> query4Pipeline(){
+        return Arrays.asList(
+                Aggregates.lookup(
+                        "Fact_Collection",
+                        "_id",
+                        "category_id",
+                        "facts"
+                ),
+                Aggregates.lookup(
+                        "Dim_Recordings",
+                        "facts.recording_id",
+                        "_id",
+                        "recordings"
+                ),
+                Aggregates.unwind("$recordings", new UnwindOptions().preserveNullAndEmptyArrays(false)),
+                Aggregates.match(Filters.gt("recordings.stock_count", 0)),
+                Aggregates.group(new Document("_id", "$_id").append("name", "$name"), // Group by both `_id` and `category_name`
+                        Accumulators.sum("movieCount", 1))
+        );
+    }
+
+    /*
+    For each actor, list the video categories that actor has appeared in.
+     */
+    static List<Bson> query5Pipeline(){
+        // Perform Aggregation
+        return Arrays.asList(
+                // Join dim_actors with fact_collection
+                Aggregates.lookup(
+                        "Fact_Collection",
+                        "_id",
+                        "actor_id",
+                        "facts"
+                ),
+                // Unwind the facts array
+                Aggregates.unwind("$facts", new UnwindOptions().preserveNullAndEmptyArrays(false)),
+                // Join fact_collection with dim_category
+                Aggregates.lookup(
+                        "Dim_Categories",
+                        "facts.category_id",
+                        "_id",
+                        "categories"
+                ),
+                // Group by actor with categories
+                Aggregates.group(
+                        "$name",
+                        Accumulators.addToSet("categories", "$categories.name")
+                )
+        );
+    }
+
+    /*
+    Which actors have appeared in movies in different video categories?
+     */
+    static List<Bson> query6Pipeline(){
+        return Arrays.asList(
+                // Join dim_actors with fact_collection
+                Aggregates.lookup(
+                        "Fact_Collection",
+                        "_id",
+                        "actor_id",
+                        "facts"
+                ),
+                // Unwind the facts array
+                Aggregates.unwind("$facts", new UnwindOptions().preserveNullAndEmptyArrays(false)),
+                // Join fact_collection with dim_category
+                Aggregates.lookup(
+                        "Dim_Categories",         // Foreign collection
+                        "facts.category_id",
+                        "_id",
+                        "categories"
+                ),
+                // Group by actor with categories
+                Aggregates.group(
+                        "$name",
+                        Accumulators.addToSet("categories", "$categories.name")
+                ),
+                // Filter actors with multiple distinct categories
+                Aggregates.match(Filters.expr(new Document("$gt", Arrays.asList(new Document("$size", "$categories"), 1))))
+        );
+    }
+
+    /*
+    Which actors have not appeared in a comedy?
+     */
+    static List<Bson> query7Pipeline(){
+        return Arrays.asList(
+                // Join dim_actors with fact_collection
+                Aggregates.lookup(
+                        "Fact_Collection",
+                        "_id",
+                        "actor_id",
+                        "facts"
+                ),
+                // Unwind the facts array
+                Aggregates.unwind("$facts", new UnwindOptions().preserveNullAndEmptyArrays(false)),
+                // Join fact_collection with dim_category
+                Aggregates.lookup(
+                        "Dim_Categories",
+                        "facts.category_id",
+                        "_id",
+                        "categories"
+                ),
+                // Unwind categories array to flatten structure
+                Aggregates.unwind("$categories", new UnwindOptions().preserveNullAndEmptyArrays(false)),
+                // Group by actor with distinct categories
+                Aggregates.group(
+                        "$name",
+                        Accumulators.addToSet("categories", "$categories.name")
+                ),
+                // Filter out actors who have been in the "Comedy" category
+                Aggregates.match(Filters.not(Filters.in("categories", Arrays.asList("Comedy"))))
+        );
+    }
+
+    /*
+    Which actors have appeared in both a comedy and an action adventure movie?
+     */
+    static List<Bson> query8Pipeline(){
+        return Arrays.asList(
+                // Join dim_actors with fact_collection
+                Aggregates.lookup(
+                        "Fact_Collection",
+                        "_id",
+                        "actor_id",
+                        "facts"
+                ),
+                // Unwind the facts array
+                Aggregates.unwind("$facts", new UnwindOptions().preserveNullAndEmptyArrays(false)),
+                // Join fact_collection with dim_category
+                Aggregates.lookup(
+                        "Dim_Categories",
+                        "facts.category_id",
+                        "_id",
+                        "categories"
+                ),
+                // Unwind categories array to flatten structure
+                Aggregates.unwind("$categories", new UnwindOptions().preserveNullAndEmptyArrays(false)),
+                // Group by actor with distinct categories
+                Aggregates.group(
+                        "$name",
+                        Accumulators.addToSet("categories", "$categories.name")
+                ),
+                // Filter actors who have both "Comedy" and "Action & Adventure" in their categories
+                Aggregates.match(Filters.and(
+                        Filters.in("categories", Arrays.asList("Comedy")),
+                        Filters.in("categories", Arrays.asList("Action & Adventure"))
+                ))
+        );
+    }
+}
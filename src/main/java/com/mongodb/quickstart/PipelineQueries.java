@@ -0,0 +1,106 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+StarQueries answered live by the Read aggregation pipelines over Fact_Collection and the Dim_* collections.
+ */
+public class PipelineQueries implements StarQueries {
+    private final MongoCollection<Document> fact;
+
+    PipelineQueries(MongoDatabase finalDB) {
+        this.fact = finalDB.getCollection("Fact_Collection");
+    }
+
+    @Override
+    public Map<String, Integer> query3() {
+        return countsPerCategory(Read.query3Pipeline());
+    }
+
+    @Override
+    public Map<String, Integer> query4(int minStock) {
+        return countsPerCategory(Read.query4Pipeline(minStock));
+    }
+
+    @Override
+    public Map<String, Set<String>> query5() {
+        return categoriesPerActor(Read.query5Pipeline());
+    }
+
+    @Override
+    public Map<String, Set<String>> query6() {
+        return categoriesPerActor(Read.query6Pipeline());
+    }
+
+    @Override
+    public Map<String, Set<String>> query7(String excludedCategory) {
+        return categoriesPerActor(Read.query7Pipeline(excludedCategory));
+    }
+
+    @Override
+    public Map<String, Set<String>> query8(List<String> requiredCategories) {
+        return categoriesPerActor(Read.query8Pipeline(requiredCategories));
+    }
+
+    @Override
+    public int query9(String category, int minPrice) {
+        return totalActors(Read.query9Pipeline(category, minPrice));
+    }
+
+    /*
+    The answer helpers read the output shapes of the Read pipelines, WideQueries runs its pipelines through them too.
+     */
+    Map<String, Integer> countsPerCategory(List<Bson> pipeline) {
+        return countsPerCategory(fact.aggregate(pipeline).allowDiskUse(true));
+    }
+
+    Map<String, Set<String>> categoriesPerActor(List<Bson> pipeline) {
+        return categoriesPerActor(fact.aggregate(pipeline).allowDiskUse(true));
+    }
+
+    int totalActors(List<Bson> pipeline) {
+        return totalActors(fact.aggregate(pipeline).first());
+    }
+
+    /*
+    The same answers from rows already fetched, FacetReport reads its $facet branches through them.
+     */
+    static Map<String, Integer> countsPerCategory(Iterable<Document> rows) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Document doc : rows) {
+            counts.merge(doc.get("_id", Document.class).getString("name"), doc.getInteger("movieCount"), Integer::sum);
+        }
+        return counts;
+    }
+
+    static Map<String, Set<String>> categoriesPerActor(Iterable<Document> rows) {
+        Map<String, Set<String>> categories = new HashMap<>();
+        for (Document doc : rows) {
+            Set<String> names = categories.computeIfAbsent(doc.getString("_id"), name -> new HashSet<>());
+            flatten(doc.get("categories"), names);
+        }
+        return categories;
+    }
+
+    static int totalActors(Document result) {
+        return result == null ? 0 : result.get("totalActors", Number.class).intValue();
+    }
+
+    // query5 / query6 return each category name inside the one-element array $lookup produced
+    static void flatten(Object value, Set<String> names) {
+        if (value instanceof List<?> list) {
+            list.forEach(element -> flatten(element, names));
+        } else if (value instanceof String name) {
+            names.add(name);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.bson.json.JsonWriterSettings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/*
+Runs the dimension-first pipelines of LegacyPipelines and the fact-first pipelines of Read side by side on
+the same data, checks they return the same results and prints the median and mean time of each form.
+With -Dbench.wide=true the lookup-free pipelines of a wide Fact_Collection are timed against the fact-first ones,
+their answers are compared through StarQueries since query5 / query6 return plain category names.
+With -Dbench.engine=<read.mode> the answers of that StarQueries engine are timed against the live pipelines.
+ */
+public class QueryBenchmark {
+    // -Dbench.iterations timed runs per query and form, after one warm-up run
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+
+    static void run(MongoDatabase finalDB) {
+        String engine = System.getProperty("bench.engine");
+        if (engine != null) {
+            compareEngines(new PipelineQueries(finalDB), engine, Read.engine(engine, finalDB));
+            return;
+        }
+        if (Boolean.getBoolean("bench.wide")) {
+            if (!WideFacts.embedded(finalDB).containsAll(WideFacts.QUERY_ATTRIBUTES)) {
+                throw new IllegalStateException("Fact_Collection does not embed " + WideFacts.QUERY_ATTRIBUTES
+                        + ", build it with Create -Dcreate.wide=true");
+            }
+            List<String> different = StarQueriesCheck.compare(new PipelineQueries(finalDB), new WideQueries(finalDB, null));
+            compare(finalDB, "joins", Read.queries(), "wide", Read.wideQueries(), false);
+            if (!different.isEmpty()) {
+                throw new IllegalStateException("Wide fact pipelines returned different answers than the fact-first ones");
+            }
+            return;
+        }
+        compare(finalDB, "legacy", LegacyPipelines.queries(), "new", Read.queries(), true);
+    }
+
+    /*
+    Times every baseline query against the candidate query of the same name, checkRows also compares their result documents.
+     */
+    private static void compare(MongoDatabase finalDB, String baselineLabel, List<Read.Query> baselines,
+                                String candidateLabel, List<Read.Query> candidates, boolean checkRows) {
+        Map<String, Read.Query> candidatesByName = candidates.stream()
+                .collect(Collectors.toMap(Read.Query::name, Function.identity()));
+        System.out.println(String.format("%-8s %14s %14s %14s %14s %8s %s", "query",
+                baselineLabel + " median", baselineLabel + " mean", candidateLabel + " median", candidateLabel + " mean",
+                "speedup", "results"));
+        boolean allMatch = true;
+        for (Read.Query baseline : baselines) {
+            Read.Query candidate = candidatesByName.get(baseline.name());
+            List<String> baselineResult = normalize(execute(finalDB, baseline));
+            List<String> candidateResult = normalize(execute(finalDB, candidate));
+            boolean match = !checkRows || baselineResult.equals(candidateResult);
+            allMatch &= match;
+
+            long[] baselineTimes = new long[ITERATIONS];
+            long[] candidateTimes = new long[ITERATIONS];
+            // alternate both forms so caching effects hit them alike
+            for (int i = 0; i < ITERATIONS; i++) {
+                baselineTimes[i] = time(finalDB, baseline);
+                candidateTimes[i] = time(finalDB, candidate);
+            }
+            System.out.println(String.format("%-8s %11.1f ms %11.1f ms %11.1f ms %11.1f ms %7.2fx %s", baseline.name(),
+                    median(baselineTimes) / 1e6, mean(baselineTimes) / 1e6, median(candidateTimes) / 1e6, mean(candidateTimes) / 1e6,
+                    median(candidateTimes) == 0 ? 0 : (double) median(baselineTimes) / median(candidateTimes),
+                    !checkRows ? candidateResult.size() + " rows"
+                            : match ? "match (" + candidateResult.size() + " rows)"
+                            : "DIFFER (" + baselineLabel + " " + baselineResult.size() + ", " + candidateLabel + " " + candidateResult.size() + " rows)"));
+        }
+        if (!allMatch) {
+            throw new IllegalStateException(candidateLabel + " pipelines returned different results than the " + baselineLabel + " ones");
+        }
+    }
+
+    /*
+    Times every StarQueries question answered by both engines, after one warm-up call that also checks the answers match.
+     */
+    private static void compareEngines(StarQueries live, String candidateLabel, StarQueries candidate) {
+        System.out.println(String.format("%-8s %14s %14s %14s %14s %8s %s", "query",
+                "live median", "live mean", candidateLabel + " median", candidateLabel + " mean", "speedup", "results"));
+        List<String> different = new ArrayList<>();
+        StarQueriesCheck.QUERIES.forEach((name, query) -> {
+            boolean match = Objects.equals(query.apply(live), query.apply(candidate));
+            if (!match) {
+                different.add(name);
+            }
+            long[] liveTimes = new long[ITERATIONS];
+            long[] candidateTimes = new long[ITERATIONS];
+            for (int i = 0; i < ITERATIONS; i++) {
+                liveTimes[i] = time(() -> query.apply(live));
+                candidateTimes[i] = time(() -> query.apply(candidate));
+            }
+            System.out.println(String.format("%-8s %11.3f ms %11.3f ms %11.3f ms %11.3f ms %7.1fx %s", name,
+                    median(liveTimes) / 1e6, mean(liveTimes) / 1e6, median(candidateTimes) / 1e6, mean(candidateTimes) / 1e6,
+                    median(candidateTimes) == 0 ? 0 : (double) median(liveTimes) / median(candidateTimes), match ? "match" : "DIFFER"));
+        });
+        if (!different.isEmpty()) {
+            throw new IllegalStateException(candidateLabel + " answers differ from the live pipelines for " + different);
+        }
+    }
+
+    private static long time(Runnable query) {
+        long start = System.nanoTime();
+        query.run();
+        return System.nanoTime() - start;
+    }
+
+    private static List<Document> execute(MongoDatabase finalDB, Read.Query query) {
+        return finalDB.getCollection(query.collection()).aggregate(query.pipeline()).allowDiskUse(true).into(new ArrayList<>());
+    }
+
+    private static long time(MongoDatabase finalDB, Read.Query query) {
+        long start = System.nanoTime();
+        for (Document ignored : finalDB.getCollection(query.collection()).aggregate(query.pipeline()).allowDiskUse(true)) {
+            // drain the cursor, the time includes fetching every batch
+        }
+        return System.nanoTime() - start;
+    }
+
+    /*
+    Order-insensitive canonical form of a result: keys sorted, arrays treated as sets, rows sorted.
+     */
+    static List<String> normalize(List<Document> result) {
+        JsonWriterSettings settings = JsonWriterSettings.builder().build();
+        return result.stream()
+                .map(doc -> ((Document) canonical(doc)).toJson(settings))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private static Object canonical(Object value) {
+        if (value instanceof Document doc) {
+            Document sorted = new Document();
+            new TreeMap<>(doc).forEach((key, v) -> sorted.append(key, canonical(v)));
+            return sorted;
+        }
+        if (value instanceof List<?> list) {
+            List<Object> elements = new ArrayList<>();
+            list.forEach(element -> elements.add(canonical(element)));
+            elements.sort(Comparator.comparing(String::valueOf));
+            return elements;
+        }
+        return value;
+    }
+
+    private static long median(long[] times) {
+        long[] sorted = Arrays.copyOf(times, times.length);
+        Arrays.sort(sorted);
+        return sorted.length == 0 ? 0 : sorted[sorted.length / 2];
+    }
+
+    private static double mean(long[] times) {
+        return Arrays.stream(times).average().orElse(0);
+    }
+}
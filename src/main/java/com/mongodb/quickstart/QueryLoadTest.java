@@ -0,0 +1,149 @@
+package com.mongodb.quickstart;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+Load test of a running QueryService: -Dload.clients concurrent clients, each a virtual thread sending one request
+after the other, cycle through -Dload.paths for -Dload.seconds after -Dload.warmupSeconds of unrecorded requests.
+Prints the throughput, the errors and the latency percentiles of every path, and the status and body of the first
+failed response of a path, so a query that fails on the data (e.g. a 500) is visible and not just counted.
+ */
+public class QueryLoadTest {
+    public static void main(String[] args) throws InterruptedException {
+        // -Dload.url base URL of the service, -Dload.paths comma separated request paths (default every query)
+        String url = System.getProperty("load.url", "http://localhost:8080");
+        List<String> paths = System.getProperty("load.paths") == null
+                ? StarQueriesCheck.QUERIES.keySet().stream().map(name -> "/" + name).toList()
+                : Arrays.stream(System.getProperty("load.paths").split(",")).map(String::trim).toList();
+        int clients = Integer.getInteger("load.clients", 16);
+        long warmupNanos = Duration.ofSeconds(Long.getLong("load.warmupSeconds", 5)).toNanos();
+        long measureNanos = Duration.ofSeconds(Long.getLong("load.seconds", 30)).toNanos();
+        System.out.println("load test of " + url + " with " + clients + " clients: " + paths);
+
+        HttpClient http = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + measureNanos;
+        List<Map<String, Latencies>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Map<String, Latencies>>> futures = new ArrayList<>();
+            for (int client = 0; client < clients; client++) {
+                int first = client;
+                futures.add(executor.submit(() -> runClient(http, url, paths, first, measureFrom, end)));
+            }
+            for (Future<Map<String, Latencies>> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        }
+        report(results, measureNanos);
+    }
+
+    /*
+    Latencies of the successful requests of one path and its error count.
+     */
+    private static class Latencies {
+        long[] nanos = new long[1024];
+        int count;
+        int errors;
+        String firstError;
+
+        void add(long latency) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = latency;
+        }
+
+        void addAll(Latencies other) {
+            for (int i = 0; i < other.count; i++) {
+                add(other.nanos[i]);
+            }
+            errors += other.errors;
+            if (firstError == null) {
+                firstError = other.firstError;
+            }
+        }
+    }
+
+    private static Map<String, Latencies> runClient(HttpClient http, String url, List<String> paths, int first,
+                                                    long measureFrom, long end) {
+        Map<String, Latencies> latencies = new HashMap<>();
+        // clients start at different paths so every query is under load at the same time
+        for (int i = first; System.nanoTime() < end; i++) {
+            String path = paths.get(i % paths.size());
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url + path)).GET().build();
+            long sent = System.nanoTime();
+            String error;
+            try {
+                HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+                error = response.statusCode() == 200 ? null : response.statusCode() + " " + response.body();
+            } catch (IOException e) {
+                error = e.toString();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            long received = System.nanoTime();
+            if (sent >= measureFrom && received <= end) {
+                Latencies pathLatencies = latencies.computeIfAbsent(path, p -> new Latencies());
+                if (error == null) {
+                    pathLatencies.add(received - sent);
+                } else {
+                    pathLatencies.errors++;
+                    if (pathLatencies.firstError == null) {
+                        pathLatencies.firstError = error;
+                    }
+                }
+            }
+        }
+        return latencies;
+    }
+
+    private static void report(List<Map<String, Latencies>> results, long measureNanos) {
+        Map<String, Latencies> merged = new TreeMap<>();
+        for (Map<String, Latencies> client : results) {
+            client.forEach((path, latencies) -> merged.computeIfAbsent(path, p -> new Latencies()).addAll(latencies));
+        }
+        double seconds = measureNanos / 1e9;
+        long total = 0;
+        long errors = 0;
+        for (Map.Entry<String, Latencies> entry : merged.entrySet()) {
+            Latencies latencies = entry.getValue();
+            long[] sorted = Arrays.copyOf(latencies.nanos, latencies.count);
+            Arrays.sort(sorted);
+            System.out.println(String.format("  %-40s %8.1f req/s  %5d errors  p50 %8.2f ms  p95 %8.2f ms  p99 %8.2f ms  max %8.2f ms",
+                    entry.getKey(), latencies.count / seconds, latencies.errors,
+                    percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99), percentile(sorted, 1.0)));
+            if (latencies.firstError != null) {
+                System.out.println("    first error: " + latencies.firstError);
+            }
+            total += latencies.count;
+            errors += latencies.errors;
+        }
+        System.out.println(String.format("total: %.1f req/s, %d errors", total / seconds, errors));
+    }
+
+    private static double percentile(long[] sorted, double q) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.max(0, Math.min(sorted.length - 1, (int) Math.ceil(q * sorted.length) - 1))] / 1e6;
+    }
+}
@@ -0,0 +1,98 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Runs explain("executionStats") on every Read query and flags the plan stages that still scan a whole
+collection or examine far more documents than they return.
+$lookup stages are reported by the server with collectionScans / totalDocsExamined / nReturned counters,
+the first stage of a pipeline with a queryPlanner tree whose leaves are COLLSCAN or IXSCAN.
+The fact-first Read queries open with a $group or $lookup over the whole Fact_Collection, their COLLSCAN is the
+plan by design and not flagged; only their $lookup stages into the dimensions and the examined ratios are checked.
+ */
+public class QueryPlanVerifier {
+    // -Dverify.maxExaminedRatio: flag stages examining more than this many documents per returned document
+    private static final double MAX_EXAMINED_RATIO = Double.parseDouble(System.getProperty("verify.maxExaminedRatio", "10"));
+
+    /*
+    Returns the number of flagged stages over all queries.
+     */
+    static int verify(MongoDatabase finalDB) {
+        int flagged = 0;
+        for (Read.Query query : Read.queries()) {
+            Document explain = finalDB.getCollection(query.collection()).aggregate(query.pipeline())
+                    .allowDiskUse(true).explain(ExplainVerbosity.EXECUTION_STATS);
+            List<String> findings = new ArrayList<>();
+            boolean fullScan = readsWholeCollection(query);
+            inspect(explain, "", fullScan, findings);
+            if (findings.isEmpty()) {
+                System.out.println(query.name() + ": ok" + (fullScan ? " (reads the whole " + query.collection() + " by design)" : ""));
+            }
+            for (String finding : findings) {
+                System.out.println(query.name() + ": " + finding);
+            }
+            flagged += findings.size();
+        }
+        System.out.println("plan verification: " + flagged + " flagged stage(s)");
+        return flagged;
+    }
+
+    /*
+    A pipeline that does not open with a $match has no filter an index could serve, the whole collection is read.
+     */
+    private static boolean readsWholeCollection(Read.Query query) {
+        return !query.pipeline().isEmpty() && !query.pipeline().get(0).toBsonDocument().containsKey("$match");
+    }
+
+    private static void inspect(Object node, String path, boolean fullScan, List<String> findings) {
+        if (node instanceof List<?> list) {
+            for (int i = 0; i < list.size(); i++) {
+                inspect(list.get(i), path + "[" + i + "]", fullScan, findings);
+            }
+            return;
+        }
+        if (!(node instanceof Document doc)) {
+            return;
+        }
+        // $lookup stages only report counters, a COLLSCAN node always belongs to the scan of the queried collection
+        if ("COLLSCAN".equals(doc.get("stage")) && !fullScan) {
+            findings.add("COLLSCAN at " + path + examined(doc.get("docsExamined"), doc.get("nReturned")));
+        }
+        if (doc.containsKey("$lookup")) {
+            Document lookup = doc.get("$lookup", Document.class);
+            String from = lookup == null ? "?" : String.valueOf(lookup.get("from"));
+            Number collectionScans = doc.get("collectionScans", Number.class);
+            if (collectionScans != null && collectionScans.longValue() > 0) {
+                findings.add("$lookup from " + from + " ran " + collectionScans + " collection scan(s)"
+                        + examined(doc.get("totalDocsExamined"), doc.get("nReturned")));
+            } else if (tooManyExamined(doc.get("totalDocsExamined"), doc.get("nReturned"))) {
+                findings.add("$lookup from " + from + examined(doc.get("totalDocsExamined"), doc.get("nReturned")));
+            }
+        } else if (!"COLLSCAN".equals(doc.get("stage")) && tooManyExamined(doc.get("totalDocsExamined"), doc.get("nReturned"))) {
+            findings.add("stage at " + path + examined(doc.get("totalDocsExamined"), doc.get("nReturned")));
+        }
+        for (String key : doc.keySet()) {
+            inspect(doc.get(key), path.isEmpty() ? key : path + "." + key, fullScan, findings);
+        }
+    }
+
+    private static boolean tooManyExamined(Object examined, Object returned) {
+        if (!(examined instanceof Number e) || !(returned instanceof Number r)) {
+            return false;
+        }
+        return e.doubleValue() > MAX_EXAMINED_RATIO * Math.max(r.doubleValue(), 1);
+    }
+
+    private static String examined(Object examined, Object returned) {
+        if (examined == null) {
+            return "";
+        }
+        return " (examined " + examined + " docs, returned " + returned
+                + (tooManyExamined(examined, returned) ? ", over " + MAX_EXAMINED_RATIO + "x" : "") + ")";
+    }
+}
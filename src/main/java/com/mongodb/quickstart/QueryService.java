@@ -0,0 +1,177 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.bson.Document;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/*
+Resident HTTP service answering the Read queries, so a request does not pay for JVM startup, the driver handshake
+and a cold connection pool. One MongoClient is shared by every request, each request runs on its own virtual thread.
+  GET /query3
+  GET /query4?minStock=0
+  GET /query5
+  GET /query6
+  GET /query7?excluded=Comedy
+  GET /query8?categories=Comedy,Action%20%26%20Adventure
+  GET /query9?category=Action%20%26%20Adventure&minPrice=20
+  GET /health
+Missing parameters take the StarQueries defaults. Answers come from the -Dread.mode engine (default live), behind the
+result cache with -Dread.cache=true. Every query is run once before the port opens.
+Actors and categories without a name are answered under the key "<null>", JSON object keys can't be null.
+Concurrent requests wait for the driver's pool, size it with maxPoolSize / minPoolSize in mongodb.uri.
+QueryLoadTest drives the service with concurrent clients.
+ */
+public class QueryService {
+    private final StarQueries engine;
+
+    QueryService(StarQueries engine) {
+        this.engine = engine;
+    }
+
+    public static void main(String[] args) throws IOException {
+        MongoClient mongoClient = DriverMetrics.createClient(System.getProperty("mongodb.uri"), "service");
+        MongoDatabase finalDB = mongoClient.getDatabase("Lab_3_Star");
+        String mode = System.getProperty("read.mode", "live");
+        StarQueries engine = Read.engine(mode, finalDB);
+        if (Boolean.getBoolean("read.cache")) {
+            engine = Read.cached(finalDB, engine);
+        }
+        warmUp(engine);
+
+        // -Dservice.port port the service listens on
+        int port = Integer.getInteger("service.port", 8080);
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", new QueryService(engine)::handle);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            mongoClient.close();
+        }));
+        System.out.println("query service (" + mode + " engine) listening on http://localhost:" + port + "/");
+    }
+
+    /*
+    Runs every query once with the default parameters: opens the first pooled connection and warms the server's
+    and the engine's caches.
+     */
+    private static void warmUp(StarQueries engine) {
+        long start = System.nanoTime();
+        StarQueriesCheck.QUERIES.forEach((name, query) -> DriverMetrics.measure(name, () -> query.apply(engine)));
+        System.out.println("warm-up: every query answered in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                respond(exchange, 405, new Document("error", "only GET is supported"));
+                return;
+            }
+            String name = exchange.getRequestURI().getPath().substring(1);
+            Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+            long start = System.nanoTime();
+            Object answer;
+            try {
+                // unknown paths share one metrics scope
+                answer = DriverMetrics.measure(StarQueriesCheck.QUERIES.containsKey(name) ? name : "other requests",
+                        () -> answer(name, parameters));
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, new Document("error", e.getMessage()));
+                return;
+            } catch (RuntimeException e) {
+                respond(exchange, 500, new Document("error", e.toString()));
+                return;
+            }
+            if (answer == null) {
+                respond(exchange, 404, new Document("error", "unknown query " + name));
+                return;
+            }
+            respond(exchange, 200, new Document("query", name)
+                    .append("parameters", new Document(new HashMap<>(parameters)))
+                    .append("millis", (System.nanoTime() - start) / 1_000_000.0)
+                    .append("result", json(answer)));
+        }
+    }
+
+    /*
+    The answer of the named query, null for an unknown name. Malformed parameters throw IllegalArgumentException.
+     */
+    private Object answer(String name, Map<String, String> parameters) {
+        return switch (name) {
+            case "health" -> "ok";
+            case "query3" -> engine.query3();
+            case "query4" -> engine.query4(intParameter(parameters, "minStock", StarQueries.DEFAULT_MIN_STOCK));
+            case "query5" -> engine.query5();
+            case "query6" -> engine.query6();
+            case "query7" -> engine.query7(parameters.getOrDefault("excluded", StarQueries.DEFAULT_EXCLUDED_CATEGORY));
+            case "query8" -> engine.query8(parameters.containsKey("categories")
+                    ? Arrays.stream(parameters.get("categories").split(",")).map(String::trim).filter(c -> !c.isEmpty()).toList()
+                    : StarQueries.DEFAULT_REQUIRED_CATEGORIES);
+            case "query9" -> engine.query9(parameters.getOrDefault("category", StarQueries.DEFAULT_PRICE_CATEGORY),
+                    intParameter(parameters, "minPrice", StarQueries.DEFAULT_MIN_PRICE));
+            default -> null;
+        };
+    }
+
+    // key of the answers of actors and categories whose name is null
+    static final String NULL_NAME = "<null>";
+
+    /*
+    The answer with its map keys as strings, null names become NULL_NAME.
+     */
+    private static Object json(Object answer) {
+        if (answer instanceof Map<?, ?> map) {
+            Document document = new Document();
+            map.forEach((key, value) -> document.append(key == null ? NULL_NAME : key.toString(), json(value)));
+            return document;
+        }
+        return answer;
+    }
+
+    private static int intParameter(Map<String, String> parameters, String name, int defaultValue) {
+        String value = parameters.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be an integer: " + value);
+        }
+    }
+
+    private static Map<String, String> parameters(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String key = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            parameters.put(key, value);
+        }
+        return parameters;
+    }
+
+    private static void respond(HttpExchange exchange, int status, Document body) throws IOException {
+        byte[] bytes = body.toJson().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
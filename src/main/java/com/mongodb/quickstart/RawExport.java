@@ -0,0 +1,266 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.RawBsonDocument;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriter;
+import org.bson.json.JsonWriterSettings;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Streams the rows of a Read query (or a whole Lab_3_Star collection) to a file or stdout as NDJSON or CSV.
+Rows are fetched as RawBsonDocument and read with a BsonBinaryReader straight from the reply bytes, no Document tree
+is built: NDJSON rows are piped into a JsonWriter, CSV rows are flattened to one column per (dotted) field, array
+elements (nested arrays and documents in an array flattened too) are joined with ';' in one cell, the columns are the fields of the first row.
+Output goes through one buffered writer over a FileChannel (stdout is wrapped in a channel too); the rows/s and
+bytes/s summary goes to stderr when the rows go to stdout.
+ */
+public class RawExport {
+    private static final JsonWriterSettings JSON = JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /*
+    -Dexport.query=<Read query name> or -Dexport.collection=<Lab_3_Star collection>, -Dexport.format=ndjson (default) | csv,
+    -Dexport.file=<path> (default stdout), -Dexport.batchSize cursor batch size.
+     */
+    static void run(MongoDatabase finalDB) {
+        String format = System.getProperty("export.format", "ndjson");
+        if (!format.equals("ndjson") && !format.equals("csv")) {
+            throw new IllegalArgumentException("Unknown export.format: " + format);
+        }
+        int batchSize = Integer.getInteger("export.batchSize", 10_000);
+        String collection = System.getProperty("export.collection");
+        String label;
+        MongoCursor<RawBsonDocument> rows;
+        if (collection != null) {
+            label = collection;
+            rows = finalDB.getCollection(collection, RawBsonDocument.class).find().batchSize(batchSize).cursor();
+        } else {
+            String name = System.getProperty("export.query", "query5");
+            Read.Query query = Read.queries().stream().filter(q -> q.name().equals(name)).findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown export.query: " + name));
+            label = name;
+            rows = finalDB.getCollection(query.collection(), RawBsonDocument.class).aggregate(query.pipeline())
+                    .allowDiskUse(true).batchSize(batchSize).cursor();
+        }
+        String file = System.getProperty("export.file");
+        // stdout is flushed but not closed
+        try (rows; FileChannel fileChannel = file == null ? null
+                : FileChannel.open(Path.of(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CountingChannel channel = new CountingChannel(fileChannel != null ? fileChannel
+                    : Channels.newChannel(new FileOutputStream(FileDescriptor.out)));
+            Writer out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), BUFFER_SIZE);
+            long start = System.nanoTime();
+            long[] read = format.equals("csv") ? writeCsv(rows, out) : writeNdjson(rows, out);
+            out.flush();
+            double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+            String summary = String.format("exported %s as %s: %d rows in %.2f s, %.0f rows/s, %.1f MB/s BSON read, %.1f MB/s written",
+                    label, format, read[0], seconds, read[0] / seconds, read[1] / seconds / 1e6, channel.bytes / seconds / 1e6);
+            (file == null ? System.err : System.out).println(summary);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not export " + label, e);
+        }
+    }
+
+    /*
+    Returns { rows, BSON bytes read }.
+     */
+    private static long[] writeNdjson(MongoCursor<RawBsonDocument> rows, Writer out) throws IOException {
+        long count = 0;
+        long bytes = 0;
+        while (rows.hasNext()) {
+            RawBsonDocument row = rows.next();
+            bytes += row.getByteBuffer().remaining();
+            try (BsonBinaryReader reader = new BsonBinaryReader(row.getByteBuffer().asNIO())) {
+                new JsonWriter(out, JSON).pipe(reader);
+            }
+            out.write('\n');
+            count++;
+        }
+        return new long[]{count, bytes};
+    }
+
+    private static long[] writeCsv(MongoCursor<RawBsonDocument> rows, Writer out) throws IOException {
+        long count = 0;
+        long bytes = 0;
+        Map<String, Integer> columns = null;
+        List<String> names = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        String[] cells = new String[0];
+        while (rows.hasNext()) {
+            RawBsonDocument row = rows.next();
+            bytes += row.getByteBuffer().remaining();
+            names.clear();
+            values.clear();
+            try (BsonBinaryReader reader = new BsonBinaryReader(row.getByteBuffer().asNIO())) {
+                flatten(reader, "", names, values);
+            }
+            if (columns == null) {
+                columns = new LinkedHashMap<>();
+                for (String name : names) {
+                    columns.putIfAbsent(name, columns.size());
+                }
+                cells = new String[columns.size()];
+                writeCsvLine(out, columns.keySet().toArray(String[]::new));
+            }
+            Arrays.fill(cells, "");
+            for (int i = 0; i < names.size(); i++) {
+                Integer column = columns.get(names.get(i));
+                // fields the first row did not have are left out
+                if (column != null) {
+                    cells[column] = values.get(i);
+                }
+            }
+            writeCsvLine(out, cells);
+            count++;
+        }
+        return new long[]{count, bytes};
+    }
+
+    /*
+    Reads one document into (dotted field name, cell value) pairs.
+     */
+    private static void flatten(BsonReader reader, String prefix, List<String> names, List<String> values) {
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = prefix + reader.readName();
+            if (reader.getCurrentBsonType() == BsonType.DOCUMENT) {
+                flatten(reader, name + ".", names, values);
+            } else if (reader.getCurrentBsonType() == BsonType.ARRAY) {
+                StringBuilder cell = new StringBuilder();
+                joinArray(reader, cell);
+                names.add(name);
+                values.add(cell.toString());
+            } else {
+                String value = scalar(reader);
+                names.add(name);
+                values.add(value == null ? "" : value);
+            }
+        }
+        reader.readEndDocument();
+    }
+
+    /*
+    Appends the scalar elements of the current array to cell, separated by ';'. Nested arrays (query5 / query6 keep
+    each category name in the one-element array $lookup produced) and the values of documents inside the array are
+    flattened into the same cell.
+     */
+    private static void joinArray(BsonReader reader, StringBuilder cell) {
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            joinValue(reader, cell);
+        }
+        reader.readEndArray();
+    }
+
+    private static void joinValue(BsonReader reader, StringBuilder cell) {
+        if (reader.getCurrentBsonType() == BsonType.ARRAY) {
+            joinArray(reader, cell);
+        } else if (reader.getCurrentBsonType() == BsonType.DOCUMENT) {
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                reader.readName();
+                joinValue(reader, cell);
+            }
+            reader.readEndDocument();
+        } else {
+            String element = scalar(reader);
+            if (element != null) {
+                cell.append(cell.isEmpty() ? "" : ";").append(element);
+            }
+        }
+    }
+
+    /*
+    The current value as text, null (and skipped) for nested documents and arrays and types without a text form.
+     */
+    private static String scalar(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case STRING -> reader.readString();
+            case INT32 -> String.valueOf(reader.readInt32());
+            case INT64 -> String.valueOf(reader.readInt64());
+            case DOUBLE -> String.valueOf(reader.readDouble());
+            case DECIMAL128 -> reader.readDecimal128().toString();
+            case BOOLEAN -> String.valueOf(reader.readBoolean());
+            case OBJECT_ID -> reader.readObjectId().toHexString();
+            case DATE_TIME -> Instant.ofEpochMilli(reader.readDateTime()).toString();
+            case NULL -> {
+                reader.readNull();
+                yield "";
+            }
+            default -> {
+                reader.skipValue();
+                yield null;
+            }
+        };
+    }
+
+    private static void writeCsvLine(Writer out, String[] cells) throws IOException {
+        for (int i = 0; i < cells.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            String cell = cells[i];
+            if (cell.indexOf(',') >= 0 || cell.indexOf('"') >= 0 || cell.indexOf('\n') >= 0 || cell.indexOf('\r') >= 0) {
+                out.write('"');
+                out.write(cell.replace("\"", "\"\""));
+                out.write('"');
+            } else {
+                out.write(cell);
+            }
+        }
+        out.write('\n');
+    }
+
+    /*
+    Counts the bytes written, for the output rate.
+     */
+    private static class CountingChannel implements WritableByteChannel {
+        private final WritableByteChannel target;
+        private long bytes;
+
+        CountingChannel(WritableByteChannel target) {
+            this.target = target;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            int written = target.write(source);
+            bytes += written;
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return target.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            target.close();
+        }
+    }
+}
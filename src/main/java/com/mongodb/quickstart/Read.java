@@ -10,6 +10,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
 
 
 
@@ -22,7 +25,7 @@ public class Read {
     private static MongoCollection<Document> directors;
 
     public static void main(String[] args) {
-        try (MongoClient mongoClient = MongoClients.create(System.getProperty("mongodb.uri"))) {
+        try (MongoClient mongoClient = DriverMetrics.createClient(System.getProperty("mongodb.uri"), "read")) {
             MongoDatabase finalDB = mongoClient.getDatabase("Lab_3_Star");
             fact = finalDB.getCollection("Fact_Collection");
             actors = finalDB.getCollection("Dim_Actors");
@@ -31,6 +34,53 @@ public class Read {
             categories = finalDB.getCollection("Dim_Categories");
             directors = finalDB.getCollection("Dim_Directors");
 
+            // -Dread.mode=benchmark times the fact-first pipelines against the original dimension-first ones,
+            // any other mode prints every query answered by that engine (-Dread.verify=true checks it against the live pipelines)
+            String mode = System.getProperty("read.mode", "live");
+            if (mode.equals("benchmark")) {
+                QueryBenchmark.run(finalDB);
+                return;
+            }
+            // -Dread.mode=report answers the selected queries in one $facet aggregation and times it against
+            // asking them one after another, see FacetReport
+            if (mode.equals("report")) {
+                FacetReport.run(finalDB);
+                return;
+            }
+            // -Dread.mode=export streams the rows of one query to NDJSON or CSV, see RawExport
+            if (mode.equals("export")) {
+                RawExport.run(finalDB);
+                return;
+            }
+            // -Dread.mode=bitmap with -Dread.categories.all / any / none (comma separated category names)
+            // lists the actors of that category combination from the category bitmaps
+            if (mode.equals("bitmap") && Stream.of("all", "any", "none").anyMatch(set -> System.getProperty("read.categories." + set) != null)) {
+                Map<String, Set<String>> matching = new BitmapQueries(finalDB, null)
+                        .actors(categories("read.categories.all"), categories("read.categories.any"), categories("read.categories.none"));
+                System.out.println(matching == null ? "category bitmaps are stale, run Create first"
+                        : matching.size() + " actors: " + matching);
+                return;
+            }
+            // -Dread.cache=true puts the versioned result cache in front of the engine, -Dread.repeat=N asks every query N times
+            boolean cache = Boolean.getBoolean("read.cache");
+            if (!mode.equals("live") || cache) {
+                StarQueries engine = engine(mode, finalDB);
+                CachedQueries cachedEngine = null;
+                if (cache) {
+                    engine = cachedEngine = cached(finalDB, engine);
+                }
+                for (int i = Integer.getInteger("read.repeat", 1); i > 0; i--) {
+                    printAll(engine);
+                }
+                if (Boolean.getBoolean("read.verify")) {
+                    StarQueriesCheck.compare(new PipelineQueries(finalDB), engine);
+                }
+                if (cachedEngine != null) {
+                    System.out.println(cachedEngine.stats());
+                }
+                return;
+            }
+
             //query3();
             //query4();
             //query5();
@@ -41,28 +91,68 @@ public class Read {
         }
     }
 
+    static StarQueries engine(String mode, MongoDatabase finalDB) {
+        return switch (mode) {
+            case "live" -> new PipelineQueries(finalDB);
+            case "rollup" -> new RollupQueries(finalDB, new PipelineQueries(finalDB));
+            case "wide" -> new WideQueries(finalDB, new PipelineQueries(finalDB));
+            case "columnar" -> ColumnarQueries.load(finalDB);
+            case "snapshot" -> StarSnapshot.open(finalDB);
+            case "bitmap" -> new BitmapQueries(finalDB, new PipelineQueries(finalDB));
+            default -> throw new IllegalArgumentException("Unknown read.mode: " + mode);
+        };
+    }
+
+    static CachedQueries cached(MongoDatabase finalDB, StarQueries engine) {
+        return new CachedQueries(finalDB, engine,
+                Integer.getInteger("read.cache.maxEntries", 1000), Long.getLong("read.cache.versionCheckMillis", 1000));
+    }
+
+    private static List<String> categories(String property) {
+        String value = System.getProperty(property, "");
+        return value.isBlank() ? List.of() : Arrays.stream(value.split(",")).map(String::trim).toList();
+    }
+
+    static void printAll(StarQueries engine) {
+        // each query is its own driver metrics scope, see DriverMetrics
+        System.out.println("videos per category: " + DriverMetrics.measure("query3", engine::query3));
+        System.out.println("in-stock videos per category: "
+                + DriverMetrics.measure("query4", () -> engine.query4(StarQueries.DEFAULT_MIN_STOCK)));
+        System.out.println("categories per actor: " + DriverMetrics.measure("query5", engine::query5));
+        System.out.println("actors in more than one category: " + DriverMetrics.measure("query6", engine::query6));
+        System.out.println("actors never in " + StarQueries.DEFAULT_EXCLUDED_CATEGORY + ": "
+                + DriverMetrics.measure("query7", () -> engine.query7(StarQueries.DEFAULT_EXCLUDED_CATEGORY)));
+        System.out.println("actors in all of " + StarQueries.DEFAULT_REQUIRED_CATEGORIES + ": "
+                + DriverMetrics.measure("query8", () -> engine.query8(StarQueries.DEFAULT_REQUIRED_CATEGORIES)));
+        System.out.println("actors in an " + StarQueries.DEFAULT_PRICE_CATEGORY + " movie over $" + StarQueries.DEFAULT_MIN_PRICE + ": "
+                + DriverMetrics.measure("query9", () -> engine.query9(StarQueries.DEFAULT_PRICE_CATEGORY, StarQueries.DEFAULT_MIN_PRICE)));
+    }
+
+    /*
+    A Read query as it is sent to the server: the collection it starts from and its pipeline.
+     */
+    record Query(String name, String collection, List<Bson> pipeline) {}
+
+    static List<Query> queries() {
+        return Arrays.asList(
+                new Query("query3", "Fact_Collection", query3Pipeline()),
+                new Query("query4", "Fact_Collection", query4Pipeline(StarQueries.DEFAULT_MIN_STOCK)),
+                new Query("query5", "Fact_Collection", query5Pipeline()),
+                new Query("query6", "Fact_Collection", query6Pipeline()),
+                new Query("query7", "Fact_Collection", query7Pipeline(StarQueries.DEFAULT_EXCLUDED_CATEGORY)),
+                new Query("query8", "Fact_Collection", query8Pipeline(StarQueries.DEFAULT_REQUIRED_CATEGORIES)),
+                new Query("query9", "Fact_Collection", query9Pipeline(StarQueries.DEFAULT_PRICE_CATEGORY, StarQueries.DEFAULT_MIN_PRICE)));
+    }
+
     /*
     List the number of videos for each video category.
      */
+    static List<Bson> query3Pipeline(){
+        return recordingsPerCategoryPipeline(List.of());
+    }
+
     private static void query3(){
-        AggregateIterable<Document> result = categories.aggregate(
-                Arrays.asList(
-                    Aggregates.lookup(
-                            "Fact_Collection",
-                            "_id",
-                            "category_id",
-                            "facts"
-                    ),
-                    Aggregates.lookup(
-                            "Dim_Recordings",
-                            "facts.recording_id",
-                            "_id",
-                            "recordings"
-                    ),
-                    Aggregates.unwind("$recordings", new UnwindOptions().preserveNullAndEmptyArrays(false)),
-                    Aggregates.group(new Document("_id", "$_id").append("name", "$name"), // Group by both `_id` and `category_name`
-                            Accumulators.sum("movieCount", 1))
-        ));
+        AggregateIterable<Document> result = fact.aggregate(query3Pipeline());
 
         // Print results
         for (Document doc : result){
@@ -79,26 +169,12 @@ public class Read {
     inventory is in recording
     categorys are in category
      */
+    static List<Bson> query4Pipeline(int minStock){
+        return recordingsPerCategoryPipeline(List.of(Aggregates.match(Filters.gt("recordings.stock_count", minStock))));
+    }
+
     private static void query4(){
-        AggregateIterable<Document> result = categories.aggregate(
-                Arrays.asList(
-                        Aggregates.lookup(
-                                "Fact_Collection",
-                                "_id",
-                                "category_id",
-                                "facts"
-                        ),
-                        Aggregates.lookup(
-                                "Dim_Recordings",
-                                "facts.recording_id",
-                                "_id",
-                                "recordings"
-                        ),
-                        Aggregates.unwind("$recordings", new UnwindOptions().preserveNullAndEmptyArrays(false)),
-                        Aggregates.match(Filters.gt("recordings.stock_count", 0)),
-                        Aggregates.group(new Document("_id", "$_id").append("name", "$name"), // Group by both `_id` and `category_name`
-                                Accumulators.sum("movieCount", 1))
-                ));
+        AggregateIterable<Document> result = fact.aggregate(query4Pipeline(StarQueries.DEFAULT_MIN_STOCK));
 
         // Print results
         for (Document doc : result) {
@@ -113,31 +189,12 @@ public class Read {
     /*
     For each actor, list the video categories that actor has appeared in.
      */
+    static List<Bson> query5Pipeline(){
+        return actorCategoriesPipeline(false, List.of());
+    }
+
     private static void query5(){
-        // Perform Aggregation
-        AggregateIterable<Document> result = actors.aggregate(Arrays.asList(
-                // Join dim_actors with fact_collection
-                Aggregates.lookup(
-                        "Fact_Collection",
-                        "_id",
-                        "actor_id",
-                        "facts"
-                ),
-                // Unwind the facts array
-                Aggregates.unwind("$facts", new UnwindOptions().preserveNullAndEmptyArrays(false)),
-                // Join fact_collection with dim_category
-                Aggregates.lookup(
-                        "Dim_Categories",
-                        "facts.category_id",
-                        "_id",
-                        "categories"
-                ),
-                // Group by actor with categories
-                Aggregates.group(
-                        "$name",
-                        Accumulators.addToSet("categories", "$categories.name")
-                )
-        ));
+        AggregateIterable<Document> result = fact.aggregate(query5Pipeline());
 
         // Print results
         for (Document doc : result) {
@@ -148,32 +205,17 @@ public class Read {
     /*
     Which actors have appeared in movies in different video categories?
      */
+    static List<Bson> query6Pipeline(){
+        return actorCategoriesPipeline(false, List.of(query6Filter()));
+    }
+
+    // Filter actors with multiple distinct categories
+    static Bson query6Filter(){
+        return Aggregates.match(Filters.expr(new Document("$gt", Arrays.asList(new Document("$size", "$categories"), 1))));
+    }
+
     private static void query6(){
-        AggregateIterable<Document> result = actors.aggregate(Arrays.asList(
-                // Join dim_actors with fact_collection
-                Aggregates.lookup(
-                        "Fact_Collection",
-                        "_id",
-                        "actor_id",
-                        "facts"
-                ),
-                // Unwind the facts array
-                Aggregates.unwind("$facts", new UnwindOptions().preserveNullAndEmptyArrays(false)),
-                // Join fact_collection with dim_category
-                Aggregates.lookup(
-                        "Dim_Categories",         // Foreign collection
-                        "facts.category_id",
-                        "_id",
-                        "categories"
-                ),
-                // Group by actor with categories
-                Aggregates.group(
-                        "$name",
-                        Accumulators.addToSet("categories", "$categories.name")
-                ),
-                // Filter actors with multiple distinct categories
-                Aggregates.match(Filters.expr(new Document("$gt", Arrays.asList(new Document("$size", "$categories"), 1))))
-        ));
+        AggregateIterable<Document> result = fact.aggregate(query6Pipeline());
 
         // Print results
         for (Document doc : result) {
@@ -184,34 +226,17 @@ public class Read {
     /*
     Which actors have not appeared in a comedy?
      */
+    static List<Bson> query7Pipeline(String excludedCategory){
+        return actorCategoriesPipeline(true, List.of(query7Filter(excludedCategory)));
+    }
+
+    // Filter out actors who have been in the "Comedy" category
+    static Bson query7Filter(String excludedCategory){
+        return Aggregates.match(Filters.not(Filters.in("categories", Arrays.asList(excludedCategory))));
+    }
+
     private static void query7(){
-        AggregateIterable<Document> result = actors.aggregate(Arrays.asList(
-                // Join dim_actors with fact_collection
-                Aggregates.lookup(
-                        "Fact_Collection",
-                        "_id",
-                        "actor_id",
-                        "facts"
-                ),
-                // Unwind the facts array
-                Aggregates.unwind("$facts", new UnwindOptions().preserveNullAndEmptyArrays(false)),
-                // Join fact_collection with dim_category
-                Aggregates.lookup(
-                        "Dim_Categories",
-                        "facts.category_id",
-                        "_id",
-                        "categories"
-                ),
-                // Unwind categories array to flatten structure
-                Aggregates.unwind("$categories", new UnwindOptions().preserveNullAndEmptyArrays(false)),
-                // Group by actor with distinct categories
-                Aggregates.group(
-                        "$name",
-                        Accumulators.addToSet("categories", "$categories.name")
-                ),
-                // Filter out actors who have been in the "Comedy" category
-                Aggregates.match(Filters.not(Filters.in("categories", Arrays.asList("Comedy"))))
-        ));
+        AggregateIterable<Document> result = fact.aggregate(query7Pipeline(StarQueries.DEFAULT_EXCLUDED_CATEGORY));
 
         // Print results
         for (Document doc : result) {
@@ -222,37 +247,17 @@ public class Read {
     /*
     Which actors have appeared in both a comedy and an action adventure movie?
      */
+    static List<Bson> query8Pipeline(List<String> requiredCategories){
+        return actorCategoriesPipeline(true, List.of(query8Filter(requiredCategories)));
+    }
+
+    // Filter actors who have every required category (by default "Comedy" and "Action & Adventure")
+    static Bson query8Filter(List<String> requiredCategories){
+        return Aggregates.match(Filters.all("categories", requiredCategories));
+    }
+
     private static void query8(){
-        AggregateIterable<Document> result = actors.aggregate(Arrays.asList(
-                // Join dim_actors with fact_collection
-                Aggregates.lookup(
-                        "Fact_Collection",
-                        "_id",
-                        "actor_id",
-                        "facts"
-                ),
-                // Unwind the facts array
-                Aggregates.unwind("$facts", new UnwindOptions().preserveNullAndEmptyArrays(false)),
-                // Join fact_collection with dim_category
-                Aggregates.lookup(
-                        "Dim_Categories",
-                        "facts.category_id",
-                        "_id",
-                        "categories"
-                ),
-                // Unwind categories array to flatten structure
-                Aggregates.unwind("$categories", new UnwindOptions().preserveNullAndEmptyArrays(false)),
-                // Group by actor with distinct categories
-                Aggregates.group(
-                        "$name",
-                        Accumulators.addToSet("categories", "$categories.name")
-                ),
-                // Filter actors who have both "Comedy" and "Action & Adventure" in their categories
-                Aggregates.match(Filters.and(
-                        Filters.in("categories", Arrays.asList("Comedy")),
-                        Filters.in("categories", Arrays.asList("Action & Adventure"))
-                ))
-        ));
+        AggregateIterable<Document> result = fact.aggregate(query8Pipeline(StarQueries.DEFAULT_REQUIRED_CATEGORIES));
 
         // Print results
         for (Document doc : result) {
@@ -260,9 +265,58 @@ public class Read {
         }
     }
 
-    private static void query9(){
+    /*
+    query3 / query4 starting from Fact_Collection: reduce the facts to distinct (category, recording) pairs,
+    join only those pairs to Dim_Recordings, count per category and join the counts to Dim_Categories.
+    recordingFilter runs on the joined "recordings" document.
+    Output matches the dimension-first form: { _id: { _id: category _id, name }, movieCount }.
+     */
+    private static List<Bson> recordingsPerCategoryPipeline(List<Bson> recordingFilter){
+        List<Bson> pipeline = new ArrayList<>(Arrays.asList(
+                Aggregates.group(new Document("category_id", "$category_id").append("recording_id", "$recording_id")),
+                Aggregates.lookup("Dim_Recordings", "_id.recording_id", "_id", "recordings"),
+                Aggregates.unwind("$recordings", new UnwindOptions().preserveNullAndEmptyArrays(false))
+        ));
+        pipeline.addAll(recordingFilter);
+        pipeline.addAll(Arrays.asList(
+                Aggregates.group("$_id.category_id", Accumulators.sum("movieCount", 1)),
+                Aggregates.lookup("Dim_Categories", "_id", "_id", "category"),
+                Aggregates.unwind("$category", new UnwindOptions().preserveNullAndEmptyArrays(false)),
+                Aggregates.project(new Document("_id", new Document("_id", "$_id").append("name", "$category.name"))
+                        .append("movieCount", 1))
+        ));
+        return pipeline;
+    }
+
+    /*
+    query5 - query8 starting from Fact_Collection: reduce the facts to distinct (actor, category) pairs,
+    join only those pairs to Dim_Categories, collect the category names per actor and join the small
+    per-actor result to Dim_Actors.
+    Without unwindCategories every category name stays the one-element array $lookup produced, as query5 and
+    query6 always returned it. Output matches the dimension-first form: { _id: actor name, categories }.
+     */
+    private static List<Bson> actorCategoriesPipeline(boolean unwindCategories, List<Bson> categoriesFilter){
+        List<Bson> pipeline = new ArrayList<>(Arrays.asList(
+                Aggregates.group(new Document("actor_id", "$actor_id").append("category_id", "$category_id")),
+                Aggregates.lookup("Dim_Categories", "_id.category_id", "_id", "categories")
+        ));
+        if (unwindCategories) {
+            pipeline.add(Aggregates.unwind("$categories", new UnwindOptions().preserveNullAndEmptyArrays(false)));
+        }
+        pipeline.addAll(Arrays.asList(
+                Aggregates.group("$_id.actor_id", Accumulators.addToSet("categories", "$categories.name")),
+                Aggregates.lookup("Dim_Actors", "_id", "_id", "actor"),
+                Aggregates.unwind("$actor", new UnwindOptions().preserveNullAndEmptyArrays(false)),
+                // Dim_Actors names are unique, one document per actor is one document per name
+                Aggregates.project(new Document("_id", "$actor.name").append("categories", 1))
+        ));
+        pipeline.addAll(categoriesFilter);
+        return pipeline;
+    }
+
+    static List<Bson> query9Pipeline(String category, int minPrice){
         // How many actors are in an Action/Adventure movie that sells for over $20?
-        AggregateIterable<Document> result = fact.aggregate(Arrays.asList(
+        return Arrays.asList(
                 // Join with Dim_category to get category names
                 Aggregates.lookup(
                         "Dim_Categories",
@@ -273,7 +327,7 @@ public class Read {
                 Aggregates.unwind("$categories", new UnwindOptions().preserveNullAndEmptyArrays(false)),
 
                 // Match categories that are Action or Adventure
-                Aggregates.match(Filters.in("categories.name", Arrays.asList("Action & Adventure"))),
+                Aggregates.match(Filters.in("categories.name", Arrays.asList(category))),
 
                 // Join with Dim_recording to get prices
                 Aggregates.lookup(
@@ -284,15 +338,95 @@ public class Read {
                 ),
                 Aggregates.unwind("$recordings", new UnwindOptions().preserveNullAndEmptyArrays(false)),
 
-                // Match recordings with price > 20
-                Aggregates.match(Filters.gt("recordings.price", 20)),
+                // Match recordings with price > minPrice
+                Aggregates.match(Filters.gt("recordings.price", minPrice)),
 
                 // Group by actor_id to count distinct actors
                 Aggregates.group("$actor_id"),
 
                 // Count the number of distinct actors
                 Aggregates.group(null, Accumulators.sum("totalActors", 1))
-        ));
+        );
+    }
+
+    /*
+    Lookup-free forms of query3 - query9 for a wide Fact_Collection (Create -Dcreate.wide=true): the category name,
+    actor name, price and stock count are fields of every fact, see WideFacts. Same output as the fact-first
+    pipelines, except that query5 / query6 return plain category names instead of one-element arrays.
+     */
+    static List<Query> wideQueries() {
+        return Arrays.asList(
+                new Query("query3", "Fact_Collection", wideQuery3Pipeline()),
+                new Query("query4", "Fact_Collection", wideQuery4Pipeline(StarQueries.DEFAULT_MIN_STOCK)),
+                new Query("query5", "Fact_Collection", wideQuery5Pipeline()),
+                new Query("query6", "Fact_Collection", wideQuery6Pipeline()),
+                new Query("query7", "Fact_Collection", wideQuery7Pipeline(StarQueries.DEFAULT_EXCLUDED_CATEGORY)),
+                new Query("query8", "Fact_Collection", wideQuery8Pipeline(StarQueries.DEFAULT_REQUIRED_CATEGORIES)),
+                new Query("query9", "Fact_Collection", wideQuery9Pipeline(StarQueries.DEFAULT_PRICE_CATEGORY, StarQueries.DEFAULT_MIN_PRICE)));
+    }
+
+    static List<Bson> wideQuery3Pipeline(){
+        return wideRecordingsPerCategoryPipeline(Filters.exists("category_name"));
+    }
+
+    static List<Bson> wideQuery4Pipeline(int minStock){
+        return wideRecordingsPerCategoryPipeline(Filters.and(Filters.exists("category_name"), Filters.gt("recording_stock_count", minStock)));
+    }
+
+    static List<Bson> wideQuery5Pipeline(){
+        return wideActorCategoriesPipeline(List.of());
+    }
+
+    static List<Bson> wideQuery6Pipeline(){
+        return wideActorCategoriesPipeline(List.of(
+                Aggregates.match(Filters.expr(new Document("$gt", Arrays.asList(new Document("$size", "$categories"), 1))))));
+    }
+
+    static List<Bson> wideQuery7Pipeline(String excludedCategory){
+        return wideActorCategoriesPipeline(List.of(
+                Aggregates.match(Filters.not(Filters.in("categories", Arrays.asList(excludedCategory))))));
+    }
+
+    static List<Bson> wideQuery8Pipeline(List<String> requiredCategories){
+        return wideActorCategoriesPipeline(List.of(Aggregates.match(Filters.all("categories", requiredCategories))));
+    }
+
+    static List<Bson> wideQuery9Pipeline(String category, int minPrice){
+        // served by the { category_name, recording_price, actor_id } index of a wide Fact_Collection
+        return Arrays.asList(
+                Aggregates.match(Filters.and(Filters.eq("category_name", category), Filters.gt("recording_price", minPrice))),
+                Aggregates.group("$actor_id"),
+                Aggregates.group(null, Accumulators.sum("totalActors", 1))
+        );
+    }
+
+    /*
+    Distinct (category, recording) pairs of the matching facts, counted per category.
+    Output: { _id: { _id: category _id, name }, movieCount }.
+     */
+    private static List<Bson> wideRecordingsPerCategoryPipeline(Bson factFilter){
+        return Arrays.asList(
+                Aggregates.match(factFilter),
+                Aggregates.group(new Document("category_id", "$category_id").append("recording_id", "$recording_id"),
+                        Accumulators.first("name", "$category_name")),
+                Aggregates.group("$_id.category_id", Accumulators.sum("movieCount", 1), Accumulators.first("name", "$name")),
+                Aggregates.project(new Document("_id", new Document("_id", "$_id").append("name", "$name"))
+                        .append("movieCount", 1))
+        );
+    }
+
+    /*
+    Category names per actor name, straight from the facts. Output: { _id: actor name, categories }.
+     */
+    private static List<Bson> wideActorCategoriesPipeline(List<Bson> categoriesFilter){
+        List<Bson> pipeline = new ArrayList<>(List.of(
+                Aggregates.group("$actor_name", Accumulators.addToSet("categories", "$category_name"))));
+        pipeline.addAll(categoriesFilter);
+        return pipeline;
+    }
+
+    private static void query9(){
+        AggregateIterable<Document> result = fact.aggregate(query9Pipeline(StarQueries.DEFAULT_PRICE_CATEGORY, StarQueries.DEFAULT_MIN_PRICE));
         for (Document doc : result) {
             System.out.println("Number of actors in an Action & Adventure Movie that sells for more than $20: " + doc.get("totalActors"));
         }
@@ -0,0 +1,129 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.MergeOptions;
+import com.mongodb.client.model.RenameCollectionOptions;
+import com.mongodb.client.model.UnwindOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.mongodb.client.model.Filters.eq;
+
+/*
+Pre-aggregated answers to the Read queries, rebuilt from Lab_3_Star after every ETL run:
+  { type: "category", name, recordings, in_stock_recordings }          query3 / query4
+  { type: "actor", name, categories, category_count }                  query5 - query8
+  { type: "category_price", category, min_price, actors }              query9, one per category name and price band
+The documents are built server-side into Rollup_Cube__building and renamed over Rollup_Cube.
+Etl_Metadata { _id: "rollup" } records the ETL run version they were built from, see RollupQueries.
+ */
+public class RollupCube {
+    static final String COLLECTION = "Rollup_Cube";
+    static final String METADATA_ID = "rollup";
+    private static final String BUILDING = COLLECTION + "__building";
+    // -Dcreate.rollup.priceBands: query9 price thresholds answered from the rollup, other thresholds use the live joins
+    static final List<Integer> PRICE_BANDS = Arrays.stream(System.getProperty("create.rollup.priceBands", "0,10,20,30,40,50").split(","))
+            .map(String::trim).map(Integer::valueOf).collect(Collectors.toList());
+
+    static void refresh(MongoDatabase finalDB) {
+        System.out.println("refreshing rollup cube");
+        long start = System.nanoTime();
+        long version = EtlMetadata.currentVersion(finalDB);
+        MongoCollection<Document> fact = finalDB.getCollection("Fact_Collection");
+        MongoCollection<Document> building = finalDB.getCollection(BUILDING);
+        building.drop();
+
+        fact.aggregate(Arrays.asList(
+                Aggregates.group(new Document("category_id", "$category_id").append("recording_id", "$recording_id")),
+                Aggregates.lookup("Dim_Recordings", "_id.recording_id", "_id", "recordings"),
+                Aggregates.unwind("$recordings", new UnwindOptions().preserveNullAndEmptyArrays(false)),
+                Aggregates.group("$_id.category_id",
+                        Accumulators.sum("recordings", 1),
+                        Accumulators.sum("in_stock_recordings", new Document("$cond",
+                                Arrays.asList(new Document("$gt", Arrays.asList("$recordings.stock_count", 0)), 1, 0)))),
+                Aggregates.lookup("Dim_Categories", "_id", "_id", "category"),
+                Aggregates.unwind("$category", new UnwindOptions().preserveNullAndEmptyArrays(false)),
+                Aggregates.project(new Document("_id", new Document("type", "category").append("category_id", "$_id"))
+                        .append("type", "category")
+                        .append("name", "$category.name")
+                        .append("recordings", 1)
+                        .append("in_stock_recordings", 1)),
+                merge()
+        )).allowDiskUse(true).toCollection();
+
+        fact.aggregate(Arrays.asList(
+                Aggregates.group(new Document("actor_id", "$actor_id").append("category_id", "$category_id")),
+                Aggregates.lookup("Dim_Categories", "_id.category_id", "_id", "categories"),
+                Aggregates.unwind("$categories", new UnwindOptions().preserveNullAndEmptyArrays(false)),
+                Aggregates.group("$_id.actor_id", Accumulators.addToSet("categories", "$categories.name")),
+                Aggregates.lookup("Dim_Actors", "_id", "_id", "actor"),
+                Aggregates.unwind("$actor", new UnwindOptions().preserveNullAndEmptyArrays(false)),
+                Aggregates.project(new Document("_id", new Document("type", "actor").append("actor_id", "$_id"))
+                        .append("type", "actor")
+                        .append("name", "$actor.name")
+                        .append("categories", 1)
+                        .append("category_count", new Document("$size", "$categories"))),
+                merge()
+        )).allowDiskUse(true).toCollection();
+
+        // an actor counts for every band below the highest price they appeared at in a category of that name,
+        // Dim_Categories names are not unique, so the actors are grouped per name to count each one once like query9
+        fact.aggregate(Arrays.asList(
+                Aggregates.group(new Document("category_id", "$category_id").append("actor_id", "$actor_id")
+                        .append("recording_id", "$recording_id")),
+                Aggregates.lookup("Dim_Recordings", "_id.recording_id", "_id", "recordings"),
+                Aggregates.unwind("$recordings", new UnwindOptions().preserveNullAndEmptyArrays(false)),
+                Aggregates.group(new Document("category_id", "$_id.category_id").append("actor_id", "$_id.actor_id"),
+                        Accumulators.max("max_price", "$recordings.price")),
+                Aggregates.lookup("Dim_Categories", "_id.category_id", "_id", "category"),
+                Aggregates.unwind("$category", new UnwindOptions().preserveNullAndEmptyArrays(false)),
+                Aggregates.group(new Document("category", "$category.name").append("actor_id", "$_id.actor_id"),
+                        Accumulators.max("max_price", "$max_price")),
+                Aggregates.project(new Document("bands", new Document("$filter", new Document("input", PRICE_BANDS)
+                        .append("as", "band")
+                        .append("cond", new Document("$gt", Arrays.asList("$max_price", "$$band")))))),
+                Aggregates.unwind("$bands"),
+                Aggregates.group(new Document("category", "$_id.category").append("min_price", "$bands"),
+                        Accumulators.sum("actors", 1)),
+                Aggregates.project(new Document("_id", new Document("type", "category_price")
+                                .append("category", "$_id.category").append("min_price", "$_id.min_price"))
+                        .append("type", "category_price")
+                        .append("category", "$_id.category")
+                        .append("min_price", "$_id.min_price")
+                        .append("actors", 1)),
+                merge()
+        )).allowDiskUse(true).toCollection();
+
+        building.createIndexes(Arrays.asList(
+                new IndexModel(Indexes.ascending("type", "name")),
+                new IndexModel(Indexes.ascending("type", "category_count")),
+                new IndexModel(Indexes.ascending("type", "categories")),
+                new IndexModel(Indexes.ascending("type", "category", "min_price"))));
+        building.renameCollection(new MongoNamespace(finalDB.getName(), COLLECTION), new RenameCollectionOptions().dropTarget(true));
+        EtlMetadata.metadata(finalDB).updateOne(eq("_id", METADATA_ID), Updates.combine(
+                        Updates.set("etl_version", version),
+                        Updates.set("price_bands", PRICE_BANDS),
+                        Updates.set("built_at", new Date())),
+                new UpdateOptions().upsert(true));
+        System.out.println("rollup cube built for ETL version " + version + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    private static Bson merge() {
+        return Aggregates.merge(BUILDING, new MergeOptions()
+                .whenMatched(MergeOptions.WhenMatched.REPLACE)
+                .whenNotMatched(MergeOptions.WhenNotMatched.INSERT));
+    }
+}
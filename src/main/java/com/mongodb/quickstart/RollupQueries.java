@@ -0,0 +1,115 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+
+/*
+StarQueries answered with single indexed reads of Rollup_Cube.
+When the rollup was built from an older ETL run version than the current one, or the parameters ask for
+something it does not hold (another stock threshold, a price that is not one of its bands), the query is
+answered by the fallback engine, normally the live pipelines.
+ */
+public class RollupQueries implements StarQueries {
+    private final MongoCollection<Document> metadata;
+    private final MongoCollection<Document> rollup;
+    private final StarQueries fallback;
+
+    RollupQueries(MongoDatabase finalDB, StarQueries fallback) {
+        this.metadata = EtlMetadata.metadata(finalDB);
+        this.rollup = finalDB.getCollection(RollupCube.COLLECTION);
+        this.fallback = fallback;
+    }
+
+    @Override
+    public Map<String, Integer> query3() {
+        return rollupState() == null ? fallback.query3() : counts("recordings");
+    }
+
+    @Override
+    public Map<String, Integer> query4(int minStock) {
+        // the rollup only counts stock_count > 0
+        return minStock != 0 || rollupState() == null ? fallback.query4(minStock) : counts("in_stock_recordings");
+    }
+
+    @Override
+    public Map<String, Set<String>> query5() {
+        return rollupState() == null ? fallback.query5() : actors(eq("type", "actor"));
+    }
+
+    @Override
+    public Map<String, Set<String>> query6() {
+        return rollupState() == null ? fallback.query6() : actors(and(eq("type", "actor"), Filters.gt("category_count", 1)));
+    }
+
+    @Override
+    public Map<String, Set<String>> query7(String excludedCategory) {
+        return rollupState() == null ? fallback.query7(excludedCategory)
+                : actors(and(eq("type", "actor"), Filters.ne("categories", excludedCategory)));
+    }
+
+    @Override
+    public Map<String, Set<String>> query8(List<String> requiredCategories) {
+        return rollupState() == null ? fallback.query8(requiredCategories)
+                : actors(and(eq("type", "actor"), Filters.all("categories", requiredCategories)));
+    }
+
+    @Override
+    public int query9(String category, int minPrice) {
+        Document state = rollupState();
+        if (state == null || !state.getList("price_bands", Integer.class, List.of()).contains(minPrice)) {
+            return fallback.query9(category, minPrice);
+        }
+        // one document per category name and band holds the distinct actors
+        Document band = rollup.find(and(eq("type", "category_price"), eq("category", category), eq("min_price", minPrice)))
+                .projection(Projections.include("actors")).first();
+        return band == null ? 0 : band.getInteger("actors");
+    }
+
+    /*
+    The rollup metadata if the rollup is current, null if it is stale or missing.
+     */
+    private Document rollupState() {
+        Map<Object, Document> state = new HashMap<>();
+        metadata.find(in("_id", EtlMetadata.RUN_ID, RollupCube.METADATA_ID)).forEach(doc -> state.put(doc.get("_id"), doc));
+        Document run = state.get(EtlMetadata.RUN_ID);
+        Document built = state.get(RollupCube.METADATA_ID);
+        if (run == null || built == null
+                || run.get("version", Number.class).longValue() != built.get("etl_version", Number.class).longValue()) {
+            System.out.println("rollup cube is stale, using the live joins");
+            return null;
+        }
+        return built;
+    }
+
+    private Map<String, Integer> counts(String field) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Document doc : rollup.find(and(eq("type", "category"), Filters.gt(field, 0)))
+                .projection(Projections.include("name", field))) {
+            counts.merge(doc.getString("name"), doc.getInteger(field), Integer::sum);
+        }
+        return counts;
+    }
+
+    private Map<String, Set<String>> actors(Bson filter) {
+        Map<String, Set<String>> actors = new HashMap<>();
+        for (Document doc : rollup.find(filter).projection(Projections.include("name", "categories"))) {
+            actors.computeIfAbsent(doc.getString("name"), name -> new HashSet<>())
+                    .addAll(doc.getList("categories", String.class));
+        }
+        return actors;
+    }
+}
@@ -0,0 +1,175 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BsonField;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UnwindOptions;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+Builds the Lab_3_Star dimensions and Fact_Collection with aggregation pipelines ending in $out,
+so no source or result document is sent to the client. Dimension rows are numbered with $setWindowFields
+into dense int surrogate keys like the client-side build.
+$lookup cannot reach across databases, so the fact build first copies Video_Actors and Video_Recordings
+into Lab_3_Star staging collections (also with $out) and joins them to the dimensions there.
+A Video_Actors row whose recording is missing fails the build, like the client-side build fails on it.
+ */
+public class ServerSideEtl {
+    private static final String STAGE_ACTORS = "Etl_Stage_Video_Actors";
+    private static final String STAGE_RECORDINGS = "Etl_Stage_Video_Recordings";
+
+    static void build(MongoDatabase originalDB, MongoDatabase finalDB, boolean withRecordingIds) {
+        StagedBuild.run(finalDB, staged -> DriverMetrics.measure("server-side build",
+                () -> build(originalDB, finalDB, staged, withRecordingIds)));
+    }
+
+    private static void build(MongoDatabase originalDB, MongoDatabase finalDB, StagedBuild staged, boolean withRecordingIds) {
+        String target = finalDB.getName();
+        MongoCollection<Document> videoRecordings = originalDB.getCollection("Video_Recordings");
+        MongoCollection<Document> videoActors = originalDB.getCollection("Video_Actors");
+        MongoCollection<Document> videoCategories = originalDB.getCollection("Video_Categories");
+
+        System.out.println("creating recordings collection (server-side)");
+        videoRecordings.aggregate(numbered("recording_id",
+                Aggregates.project(new Document("_id", 0)
+                        .append("recording_id", field("recording_id"))
+                        .append("title", field("title"))
+                        .append("image_name", field("image_name"))
+                        .append("duration", field("duration"))
+                        .append("year_released", field("year_released"))
+                        .append("stock_count", field("stock_count"))
+                        .append("price", field("price"))),
+                Aggregates.out(target, staged.name("Dim_Recordings"))
+        )).toCollection();
+
+        System.out.println("creating categories collection (server-side)");
+        videoCategories.aggregate(numbered("category_id",
+                Aggregates.project(new Document("_id", 0)
+                        .append("category_id", field("id"))
+                        .append("name", field("name"))),
+                Aggregates.out(target, staged.name("Dim_Categories"))
+        )).toCollection();
+
+        System.out.println("creating actors collection (server-side)");
+        videoActors.aggregate(distinctKeys("name", "name", "Movies", withRecordingIds,
+                List.of(Accumulators.first("id", "$id")), target, staged.name("Dim_Actors"))).toCollection();
+
+        System.out.println("creating ratings collection (server-side)");
+        videoRecordings.aggregate(distinctKeys("rating", "rating", "recording_ids", withRecordingIds,
+                List.of(), target, staged.name("Dim_Ratings"))).toCollection();
+
+        System.out.println("creating director collection (server-side)");
+        videoRecordings.aggregate(distinctKeys("director", "director", "Movies", withRecordingIds,
+                List.of(), target, staged.name("Dim_Directors"))).toCollection();
+
+        System.out.println("creating fact collection (server-side)");
+        videoActors.aggregate(List.of(Aggregates.out(target, STAGE_ACTORS))).toCollection();
+        videoRecordings.aggregate(List.of(Aggregates.out(target, STAGE_RECORDINGS))).toCollection();
+        try {
+            // every $lookup below is an equality match, index the foreign keys so each one is a point read
+            finalDB.getCollection(STAGE_RECORDINGS).createIndex(Indexes.ascending("recording_id"));
+            StarIndexes.build(staged::collection, StagedBuild.DIMENSIONS);
+
+            finalDB.getCollection(STAGE_ACTORS).aggregate(Arrays.asList(
+                    Aggregates.lookup(STAGE_RECORDINGS, "recording_id", "recording_id", "video_recording"),
+                    // keep actors without a recording, the check below fails the build on them instead of dropping them
+                    Aggregates.unwind("$video_recording", new UnwindOptions().preserveNullAndEmptyArrays(true)),
+                    Aggregates.lookup(staged.name("Dim_Actors"), "name", "name", "actor"),
+                    Aggregates.lookup(staged.name("Dim_Recordings"), "recording_id", "recording_id", "recording"),
+                    Aggregates.lookup(staged.name("Dim_Ratings"), "video_recording.rating", "rating", "rating"),
+                    Aggregates.lookup(staged.name("Dim_Categories"), "video_recording.category", "name", "category"),
+                    Aggregates.lookup(staged.name("Dim_Directors"), "video_recording.director", "director", "director"),
+                    // facts keep the _id of their Video_Actors row, see IncrementalSync
+                    Aggregates.project(factProjection()),
+                    Aggregates.out(staged.name("Fact_Collection"))
+            )).toCollection();
+            StarIndexes.build(staged::collection, List.of("Fact_Collection"));
+            failOnMissingRecording(finalDB, staged);
+        } finally {
+            finalDB.getCollection(STAGE_ACTORS).drop();
+            finalDB.getCollection(STAGE_RECORDINGS).drop();
+        }
+    }
+
+    /*
+    Dim_Recordings has a row for every Video_Recordings recording_id, so a fact without a recording_id comes from an
+    actor whose recording does not exist.
+     */
+    private static void failOnMissingRecording(MongoDatabase finalDB, StagedBuild staged) {
+        Document fact = staged.collection("Fact_Collection").find(Filters.eq("recording_id", null)).first();
+        if (fact != null) {
+            Document actor = finalDB.getCollection(STAGE_ACTORS).find(Filters.eq("_id", fact.get("_id"))).first();
+            throw new IllegalStateException("No Video_Recordings entry for recording_id="
+                    + (actor == null ? null : actor.get("recording_id")) + " of Video_Actors " + fact.get("_id"));
+        }
+    }
+
+    /*
+    Foreign keys of a fact, followed by the wide fact attributes read from the joined source rows.
+     */
+    private static Document factProjection() {
+        Document projection = new Document("actor_id", firstId("$actor"))
+                .append("recording_id", firstId("$recording"))
+                .append("rating_id", firstId("$rating"))
+                .append("category_id", firstId("$category"))
+                .append("director_id", firstId("$director"));
+        for (WideFacts.Attribute attribute : WideFacts.ATTRIBUTES) {
+            String source = attribute.source().equals("Video_Actors") ? "" : "video_recording.";
+            projection.append(attribute.field(), field(source + attribute.sourceField()));
+        }
+        return projection;
+    }
+
+    /*
+    Distinct values of sourceField written as { outputField: value, <accumulated fields> } documents.
+    The source is read in _id order (an index scan, no blocking sort) so $first and the pushed recording ids are
+    deterministic and match the client-side SourceScan, which reads in the same order. A null or missing value is a
+    key like any other and gets its { outputField: null } row, as in the client-side build.
+     */
+    private static List<Bson> distinctKeys(String sourceField, String outputField, String recordingIdsField,
+                                           boolean withRecordingIds, List<BsonField> accumulators,
+                                           String targetDB, String targetCollection) {
+        List<BsonField> groupFields = new ArrayList<>(accumulators);
+        Document projection = new Document("_id", 0).append(outputField, "$_id");
+        accumulators.forEach(accumulator -> projection.append(accumulator.getName(), 1));
+        if (withRecordingIds) {
+            groupFields.add(Accumulators.push(recordingIdsField, "$recording_id"));
+            projection.append(recordingIdsField, 1);
+        }
+        return numbered(outputField,
+                Aggregates.sort(Sorts.ascending("_id")),
+                Aggregates.group("$" + sourceField, groupFields),
+                Aggregates.project(projection),
+                Aggregates.out(targetDB, targetCollection)
+        );
+    }
+
+    /*
+    The pipeline with the surrogate key numbering (see SurrogateKeys) inserted before its final $out stage.
+     */
+    private static List<Bson> numbered(String keyField, Bson... stages) {
+        List<Bson> pipeline = new ArrayList<>(Arrays.asList(stages).subList(0, stages.length - 1));
+        pipeline.addAll(SurrogateKeys.numberBy(keyField));
+        pipeline.add(stages[stages.length - 1]);
+        return pipeline;
+    }
+
+    // missing source fields become explicit nulls, like Document.append(key, doc.getString(key)) on the client
+    private static Document field(String name) {
+        return new Document("$ifNull", Arrays.asList("$" + name, null));
+    }
+
+    private static Document firstId(String lookupField) {
+        return new Document("$arrayElemAt", Arrays.asList(lookupField + "._id", 0));
+    }
+}
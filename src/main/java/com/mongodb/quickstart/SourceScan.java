@@ -0,0 +1,82 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/*
+Single cursor pass over a Lab_3 source collection that collects everything the dimension builders and the fact
+build need. Per-key recording id lists are only kept when withRecordingIds is set, otherwise the maps hold empty lists.
+Null directors, ratings and actor names are keys like any other, they get their own dimension row as they always did.
+Sources are read in _id order, so "first seen" is deterministic and matches the server-side build.
+ */
+public class SourceScan {
+
+    /*
+    Everything derived from one scan of Video_Recordings: recording_id -> Dim_Recordings _id, recording_id -> the
+    fact attributes of the recording, director / rating -> recording ids.
+     */
+    record Recordings(Map<Object, Object> recordingKeys, Map<Object, Document> attributes,
+                      Map<String, List<Integer>> directors, Map<String, List<Integer>> ratings) {}
+
+    /*
+    Everything derived from one scan of Video_Actors: name -> first seen actor id, name -> recording ids.
+     */
+    record Actors(Map<String, Integer> actorIds, Map<String, List<Integer>> recordingIds) {}
+
+    /*
+    Writes every Dim_Recordings row to dimRecordings while scanning, only its key and the attributeFields the fact
+    build reads are kept.
+     */
+    static Recordings scanRecordings(MongoCollection<Document> videoRecordings, Consumer<Document> dimRecordings,
+                                     List<String> attributeFields, boolean withRecordingIds) {
+        SurrogateKeys.Sequence keys = new SurrogateKeys.Sequence();
+        Map<Object, Object> recordingKeys = new HashMap<>();
+        Map<Object, Document> attributes = new HashMap<>();
+        Map<String, List<Integer>> directors = new LinkedHashMap<>();
+        Map<String, List<Integer>> ratings = new LinkedHashMap<>();
+        for (Document recording : videoRecordings.find().sort(Sorts.ascending("_id")).batchSize(10_000)) {
+            Integer recordingId = recording.getInteger("recording_id");
+            Document row = keys.newEntry();
+            row.putAll(Create.recordingEntry(recording));
+            dimRecordings.accept(row);
+            recordingKeys.putIfAbsent(recordingId, row.get("_id"));
+
+            Document recordingAttributes = new Document();
+            for (String field : attributeFields) {
+                if (recording.containsKey(field)) {
+                    recordingAttributes.append(field, recording.get(field));
+                }
+            }
+            attributes.putIfAbsent(recordingId, recordingAttributes);
+            collect(directors, recording.getString("director"), recordingId, withRecordingIds);
+            collect(ratings, recording.getString("rating"), recordingId, withRecordingIds);
+        }
+        return new Recordings(recordingKeys, attributes, directors, ratings);
+    }
+
+    static Actors scanActors(MongoCollection<Document> videoActors, boolean withRecordingIds) {
+        Map<String, Integer> actorIds = new LinkedHashMap<>();
+        Map<String, List<Integer>> recordingIds = new LinkedHashMap<>();
+        for (Document actor : videoActors.find().sort(Sorts.ascending("_id")).batchSize(10_000)) {
+            String name = actor.getString("name");
+            actorIds.putIfAbsent(name, actor.getInteger("id"));
+            collect(recordingIds, name, actor.getInteger("recording_id"), withRecordingIds);
+        }
+        return new Actors(actorIds, recordingIds);
+    }
+
+    private static void collect(Map<String, List<Integer>> keys, String key, Integer recordingId, boolean withRecordingIds) {
+        List<Integer> ids = keys.computeIfAbsent(key, k -> new ArrayList<>());
+        if (withRecordingIds) {
+            ids.add(recordingId);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.RenameCollectionOptions;
+import org.bson.Document;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/*
+A Lab_3_Star rebuild writes into versioned staging collections (Dim_Actors__staging_<version>, ...) that Read
+never looks at. Once every stage succeeded the swap is one short loop of renames, no data is copied: each live
+collection is renamed to <name>__previous (dropTarget=true, replacing the one kept by the build before) for rollback,
+then its staging collection is renamed to the live name.
+The swap of the whole set is not atomic: for the few milliseconds of the renames a live name can be missing and Read
+can see new dimensions next to the previous Fact_Collection. After the swap (and after a rollback) a new ETL run version is recorded,
+after the swap the rollup cube and the category bitmaps are rebuilt and the StarSnapshot file is rewritten if requested.
+ */
+public class StagedBuild {
+    static final List<String> COLLECTIONS = Arrays.asList(
+            "Dim_Recordings", "Dim_Categories", "Dim_Actors", "Dim_Ratings", "Dim_Directors", "Fact_Collection");
+    static final List<String> DIMENSIONS = COLLECTIONS.subList(0, 5);
+    private static final String STAGING = "__staging_";
+    private static final String PREVIOUS = "__previous";
+
+    private final MongoDatabase finalDB;
+    private final String version;
+
+    // package-private for the benchmarks, which build single stages into staging collections that are never swapped in
+    StagedBuild(MongoDatabase finalDB, String version) {
+        this.finalDB = finalDB;
+        this.version = version;
+    }
+
+    /*
+    Builds into fresh staging collections and swaps them in, or drops them if the build fails.
+     */
+    static void run(MongoDatabase finalDB, Consumer<StagedBuild> build) {
+        StagedBuild staged = new StagedBuild(finalDB, String.valueOf(System.currentTimeMillis()));
+        staged.dropAbandonedStaging();
+        try {
+            build.accept(staged);
+        } catch (RuntimeException e) {
+            System.out.println("build " + staged.version + " failed, dropping its staging collections");
+            staged.discard();
+            throw e;
+        }
+        DriverMetrics.measure("swap", () -> {
+            staged.swap();
+            WideFacts.recordSwap(finalDB);
+        });
+        long version = EtlMetadata.recordRun(finalDB, "full");
+        System.out.println("Lab_3_Star is now at ETL version " + version);
+        StorageReport.record(finalDB);
+        DriverMetrics.measure("rollup cube", () -> RollupCube.refresh(finalDB));
+        DriverMetrics.measure("category bitmaps", () -> CategoryBitmaps.build(finalDB));
+        DriverMetrics.measure("snapshot", () -> StarSnapshot.writeIfRequested(finalDB));
+    }
+
+    String name(String collection) {
+        return collection + STAGING + version;
+    }
+
+    MongoCollection<Document> collection(String collection) {
+        return finalDB.getCollection(name(collection));
+    }
+
+    String version() {
+        return version;
+    }
+
+    private void swap() {
+        Set<String> existing = finalDB.listCollectionNames().into(new HashSet<>());
+        for (String collection : COLLECTIONS) {
+            if (!existing.contains(name(collection))) {
+                // a builder that produced no documents never created its staging collection, swap in an empty one
+                finalDB.createCollection(name(collection));
+            }
+        }
+        for (String collection : COLLECTIONS) {
+            if (existing.contains(collection)) {
+                rename(finalDB, collection, collection + PREVIOUS);
+            }
+            rename(finalDB, name(collection), collection);
+        }
+        System.out.println("swapped in build " + version + ", previous collections kept as <name>" + PREVIOUS);
+    }
+
+    void discard() {
+        COLLECTIONS.forEach(collection -> collection(collection).drop());
+    }
+
+    /*
+    Swaps every <name>__previous back in, the replaced collections become the new <name>__previous.
+    Like the swap this only renames, a live name is missing for the few milliseconds between two renames.
+     */
+    static void rollback(MongoDatabase finalDB) {
+        Set<String> existing = finalDB.listCollectionNames().into(new HashSet<>());
+        for (String collection : COLLECTIONS) {
+            String previous = collection + PREVIOUS;
+            if (!existing.contains(previous)) {
+                System.out.println("no " + previous + " to roll back to, keeping " + collection);
+                continue;
+            }
+            String swap = collection + "__rollback";
+            if (existing.contains(collection)) {
+                rename(finalDB, collection, swap);
+            }
+            rename(finalDB, previous, collection);
+            if (existing.contains(collection)) {
+                rename(finalDB, swap, previous);
+            }
+            System.out.println("rolled back " + collection);
+        }
+        WideFacts.recordRollback(finalDB);
+        System.out.println("Lab_3_Star is now at ETL version " + EtlMetadata.recordRun(finalDB, "rollback"));
+    }
+
+    /*
+    Drops the staging collections of earlier builds that never finished. Staging collections of this build, and of
+    builds started less than -Dcreate.staging.abandonAfterMinutes (default 60) ago, which may still be running, are kept.
+     */
+    private void dropAbandonedStaging() {
+        long abandonedBefore = Long.parseLong(version) - Duration.ofMinutes(Long.getLong("create.staging.abandonAfterMinutes", 60)).toMillis();
+        for (String name : finalDB.listCollectionNames().into(new HashSet<>())) {
+            int staging = name.indexOf(STAGING);
+            if (staging < 0) {
+                continue;
+            }
+            String stagingVersion = name.substring(staging + STAGING.length());
+            if (stagingVersion.equals(version)) {
+                continue;
+            }
+            long started;
+            try {
+                started = Long.parseLong(stagingVersion);
+            } catch (NumberFormatException e) {
+                started = Long.MIN_VALUE;
+            }
+            if (started >= abandonedBefore) {
+                System.out.println("keeping staging collection " + name + ", its build may still be running");
+                continue;
+            }
+            System.out.println("dropping abandoned staging collection " + name);
+            finalDB.getCollection(name).drop();
+        }
+    }
+
+    private static void rename(MongoDatabase finalDB, String from, String to) {
+        finalDB.getCollection(from).renameCollection(new MongoNamespace(finalDB.getName(), to),
+                new RenameCollectionOptions().dropTarget(true));
+    }
+}
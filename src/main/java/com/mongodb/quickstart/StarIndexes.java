@@ -0,0 +1,57 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/*
+The indexes the star schema needs, per Lab_3_Star collection.
+Dimension natural keys serve the ETL's key lookups and the incremental upserts. Read's fact-first queries group
+over the whole Fact_Collection and only $lookup into the dimensions by _id, so they use no fact index; the
+recording_id index serves the recording updates and deletes of the incremental mode, a wide Fact_Collection
+adds the indexes of WideFacts.indexes().
+ */
+public class StarIndexes {
+    static final Map<String, List<IndexModel>> INDEXES = Map.of(
+            "Dim_Actors", List.of(new IndexModel(Indexes.ascending("name"), new IndexOptions().unique(true))),
+            "Dim_Recordings", List.of(new IndexModel(Indexes.ascending("recording_id"))),
+            "Dim_Ratings", List.of(new IndexModel(Indexes.ascending("rating"), new IndexOptions().unique(true))),
+            "Dim_Categories", List.of(new IndexModel(Indexes.ascending("name"))),
+            "Dim_Directors", List.of(new IndexModel(Indexes.ascending("director"), new IndexOptions().unique(true))),
+            "Fact_Collection", List.of(new IndexModel(Indexes.ascending("recording_id"))));
+
+    /*
+    Builds the declared indexes of the named collections, collection maps a Lab_3_Star name to the physical
+    collection (a staging collection during a rebuild). createIndexes is a no-op for indexes that already exist.
+     */
+    static void build(Function<String, MongoCollection<Document>> collection, List<String> names) {
+        for (String name : names) {
+            long start = System.nanoTime();
+            List<IndexModel> indexes = new ArrayList<>(INDEXES.get(name));
+            if (name.equals("Fact_Collection")) {
+                indexes.addAll(WideFacts.indexes());
+            }
+            List<String> created = collection.apply(name).createIndexes(indexes);
+            System.out.println("indexed " + name + " " + created + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+    }
+
+    static void buildAll(MongoDatabase finalDB) {
+        build(finalDB::getCollection, StagedBuild.COLLECTIONS);
+    }
+
+    /*
+    Lab_3 source index used by the recording lookups of the incremental mode.
+     */
+    static void buildSource(MongoDatabase originalDB) {
+        originalDB.getCollection("Video_Recordings").createIndex(Indexes.ascending("recording_id"));
+    }
+}
@@ -0,0 +1,54 @@
+package com.mongodb.quickstart;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+The questions of Read.query3 - query9, answered by any engine over Lab_3_Star (the live aggregation
+pipelines, the rollup cube, ...). Results are order-free: category name -> count, actor name -> category
+names, so the answers of two engines can be compared with equals().
+The DEFAULT_ constants are the literals Read has always used.
+ */
+public interface StarQueries {
+    int DEFAULT_MIN_STOCK = 0;
+    String DEFAULT_EXCLUDED_CATEGORY = "Comedy";
+    List<String> DEFAULT_REQUIRED_CATEGORIES = List.of("Comedy", "Action & Adventure");
+    String DEFAULT_PRICE_CATEGORY = "Action & Adventure";
+    int DEFAULT_MIN_PRICE = 20;
+
+    /*
+    query3: number of videos per category.
+     */
+    Map<String, Integer> query3();
+
+    /*
+    query4: number of videos per category with stock_count > minStock.
+     */
+    Map<String, Integer> query4(int minStock);
+
+    /*
+    query5: the categories of every actor.
+     */
+    Map<String, Set<String>> query5();
+
+    /*
+    query6: actors that appeared in more than one category, with their categories.
+     */
+    Map<String, Set<String>> query6();
+
+    /*
+    query7: actors that never appeared in excludedCategory, with their categories.
+     */
+    Map<String, Set<String>> query7(String excludedCategory);
+
+    /*
+    query8: actors that appeared in every one of requiredCategories, with their categories.
+     */
+    Map<String, Set<String>> query8(List<String> requiredCategories);
+
+    /*
+    query9: number of distinct actors in a category video priced over minPrice.
+     */
+    int query9(String category, int minPrice);
+}
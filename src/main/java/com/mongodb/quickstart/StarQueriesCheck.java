@@ -0,0 +1,48 @@
+package com.mongodb.quickstart;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/*
+Asks two StarQueries engines every query with the default parameters and reports the answers that differ.
+ */
+public class StarQueriesCheck {
+    // every query with the default parameters, in Read order
+    static final Map<String, Function<StarQueries, Object>> QUERIES = new LinkedHashMap<>();
+
+    static {
+        QUERIES.put("query3", StarQueries::query3);
+        QUERIES.put("query4", q -> q.query4(StarQueries.DEFAULT_MIN_STOCK));
+        QUERIES.put("query5", StarQueries::query5);
+        QUERIES.put("query6", StarQueries::query6);
+        QUERIES.put("query7", q -> q.query7(StarQueries.DEFAULT_EXCLUDED_CATEGORY));
+        QUERIES.put("query8", q -> q.query8(StarQueries.DEFAULT_REQUIRED_CATEGORIES));
+        QUERIES.put("query9", q -> q.query9(StarQueries.DEFAULT_PRICE_CATEGORY, StarQueries.DEFAULT_MIN_PRICE));
+    }
+
+    /*
+    Returns the names of the queries whose answers differ.
+     */
+    static List<String> compare(StarQueries expected, StarQueries actual) {
+        List<String> different = new ArrayList<>();
+        QUERIES.forEach((name, query) -> check(name, expected, actual, query, different));
+        System.out.println(different.isEmpty() ? "all queries match" : "queries with different answers: " + different);
+        return different;
+    }
+
+    private static void check(String name, StarQueries expected, StarQueries actual, Function<StarQueries, Object> query,
+                              List<String> different) {
+        Object expectedAnswer = query.apply(expected);
+        Object actualAnswer = query.apply(actual);
+        if (Objects.equals(expectedAnswer, actualAnswer)) {
+            System.out.println(name + ": match");
+        } else {
+            System.out.println(name + ": DIFFERENT\n  expected " + expectedAnswer + "\n  actual   " + actualAnswer);
+            different.add(name);
+        }
+    }
+}
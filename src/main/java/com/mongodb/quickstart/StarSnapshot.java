@@ -0,0 +1,328 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoDatabase;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/*
+Columnar snapshot file of Lab_3_Star: the columns of ColumnarQueries written once after a build, memory-mapped by
+readers, so a fresh JVM answers the Read queries without streaming Fact_Collection and the dimensions through the
+driver, and processes mapping the same file share its pages in the page cache.
+Layout, little-endian, every section starts on a SECTION_ALIGNMENT boundary:
+  header   magic "L3STARSN", format version, section count, ETL run version, created at (epoch ms),
+           one { id, element count, offset, length, CRC32C } entry per section, CRC32C of the header
+  sections ACTOR_NAMES, CATEGORY_NAMES  string dictionaries: int offset[count], int length[count] (-1 for a key without
+                                        a dimension row, -2 for a row whose name is null), UTF-8 bytes
+           RECORDING_EXISTS             byte per recording code
+           RECORDING_PRICE, _STOCK      int per recording code, Integer.MIN_VALUE when missing
+           FACT_ACTOR, _RECORDING, _CATEGORY  int code per fact, -1 for a missing foreign key
+Create writes it with -Dcreate.snapshot=<path> (true for Lab_3_Star.snapshot) after every full build, to <path>.tmp
+renamed over <path>, so readers that still map the previous file keep a consistent copy. Read -Dread.mode=snapshot -Dread.snapshot=<path> answers from it
+through the ColumnarQueries scans, only the category names and the actor names of a result are decoded onto the heap.
+Opening checks the header checksum, -Dread.snapshot.verify=true also checks every section (reads the whole file).
+ */
+public class StarSnapshot {
+    static final String DEFAULT_PATH = "Lab_3_Star.snapshot";
+    private static final byte[] MAGIC = "L3STARSN".getBytes(StandardCharsets.US_ASCII);
+    private static final int FORMAT_VERSION = 2;
+    private static final int SECTION_ALIGNMENT = 64;
+    private static final int HEADER_FIXED_BYTES = 32;
+    private static final int SECTION_ENTRY_BYTES = 32;
+    private static final int NO_ROW = -1;
+    private static final int NULL_NAME = -2;
+    private static final int ACTOR_NAMES = 1;
+    private static final int CATEGORY_NAMES = 2;
+    private static final int RECORDING_EXISTS = 3;
+    private static final int RECORDING_PRICE = 4;
+    private static final int RECORDING_STOCK = 5;
+    private static final int FACT_ACTOR = 6;
+    private static final int FACT_RECORDING = 7;
+    private static final int FACT_CATEGORY = 8;
+    private static final int SECTIONS = 8;
+
+    private record Section(int id, int count, long offset, long length, int crc) {}
+
+    /*
+    Writes the snapshot when -Dcreate.snapshot is set, called after every full build.
+     */
+    static void writeIfRequested(MongoDatabase finalDB) {
+        String path = System.getProperty("create.snapshot");
+        if (path != null && !path.equals("false")) {
+            write(ColumnarQueries.load(finalDB), EtlMetadata.currentVersion(finalDB), Path.of(path.equals("true") ? DEFAULT_PATH : path));
+        }
+    }
+
+    static void write(ColumnarQueries columns, long etlVersion, Path path) {
+        long start = System.nanoTime();
+        List<ByteBuffer> contents = List.of(
+                strings(columns.actorNames),
+                strings(columns.categoryNames),
+                columns.recordingExists.duplicate().clear(),
+                ints(columns.recordingPrice),
+                ints(columns.recordingStock),
+                ints(columns.factActor),
+                ints(columns.factRecording),
+                ints(columns.factCategory));
+        int[] counts = {columns.actorNames.size(), columns.categoryNames.size(), columns.recordingExists.capacity(),
+                columns.recordingPrice.limit(), columns.recordingStock.limit(),
+                columns.factActor.limit(), columns.factRecording.limit(), columns.factCategory.limit()};
+
+        List<Section> sections = new ArrayList<>();
+        long offset = align(HEADER_FIXED_BYTES + (long) SECTIONS * SECTION_ENTRY_BYTES + 4);
+        for (int i = 0; i < SECTIONS; i++) {
+            ByteBuffer content = contents.get(i);
+            CRC32C crc = new CRC32C();
+            crc.update(content.duplicate());
+            sections.add(new Section(i + 1, counts[i], offset, content.remaining(), (int) crc.getValue()));
+            offset = align(offset + content.remaining());
+        }
+        ByteBuffer header = header(etlVersion, System.currentTimeMillis(), sections);
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, header, 0);
+                for (int i = 0; i < SECTIONS; i++) {
+                    writeFully(channel, contents.get(i), sections.get(i).offset());
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the snapshot " + path, e);
+        }
+        System.out.println("snapshot of ETL version " + etlVersion + " written to " + path + ": " + offset / 1024 + " KB in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /*
+    Maps the -Dread.snapshot file, with a warning when Lab_3_Star moved on since it was written.
+     */
+    static ColumnarQueries open(MongoDatabase finalDB) {
+        Path path = Path.of(System.getProperty("read.snapshot", DEFAULT_PATH));
+        ColumnarQueries columns = open(path);
+        long snapshotVersion = etlVersion(path);
+        long currentVersion = EtlMetadata.currentVersion(finalDB);
+        if (snapshotVersion != currentVersion) {
+            System.out.println("snapshot " + path + " is of ETL version " + snapshotVersion + ", Lab_3_Star is at " + currentVersion);
+        }
+        return columns;
+    }
+
+    /*
+    Maps the snapshot, the returned engine reads its columns from the mapped pages.
+     */
+    static ColumnarQueries open(Path path) {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer fixed = read(channel, 0, HEADER_FIXED_BYTES);
+            byte[] magic = new byte[MAGIC.length];
+            fixed.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IllegalStateException(path + " is not a Lab_3_Star snapshot");
+            }
+            int version = fixed.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalStateException(path + " has snapshot format " + version + ", expected " + FORMAT_VERSION);
+            }
+            int sectionCount = fixed.getInt();
+            if (sectionCount < SECTIONS || sectionCount > 64) {
+                throw new IllegalStateException(path + " has a corrupt header: " + sectionCount + " sections");
+            }
+            long etlVersion = fixed.getLong();
+            ByteBuffer header = read(channel, 0, HEADER_FIXED_BYTES + sectionCount * SECTION_ENTRY_BYTES + 4);
+            CRC32C headerCrc = new CRC32C();
+            headerCrc.update(header.duplicate().limit(header.limit() - 4));
+            if ((int) headerCrc.getValue() != header.getInt(header.limit() - 4)) {
+                throw new IllegalStateException(path + ": header checksum mismatch");
+            }
+            MappedByteBuffer[] mapped = new MappedByteBuffer[SECTIONS + 1];
+            header.position(HEADER_FIXED_BYTES);
+            boolean verify = Boolean.getBoolean("read.snapshot.verify");
+            for (int i = 0; i < sectionCount; i++) {
+                Section section = new Section(header.getInt(), header.getInt(), header.getLong(), header.getLong(), header.getInt());
+                header.getInt();
+                if (section.offset() + section.length() > channel.size()) {
+                    throw new IllegalStateException(path + " is truncated");
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, section.offset(), section.length());
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                if (verify) {
+                    CRC32C crc = new CRC32C();
+                    crc.update(buffer.duplicate());
+                    if ((int) crc.getValue() != section.crc()) {
+                        throw new IllegalStateException(path + ": checksum mismatch in section " + section.id());
+                    }
+                }
+                if (section.id() >= 1 && section.id() <= SECTIONS) {
+                    mapped[section.id()] = buffer;
+                }
+            }
+            for (int id = 1; id <= SECTIONS; id++) {
+                if (mapped[id] == null) {
+                    throw new IllegalStateException(path + " has no section " + id);
+                }
+            }
+            ColumnarQueries columns = new ColumnarQueries(new MappedNames(mapped[ACTOR_NAMES]), cached(new MappedNames(mapped[CATEGORY_NAMES])),
+                    mapped[RECORDING_EXISTS], intView(mapped[RECORDING_PRICE]), intView(mapped[RECORDING_STOCK]),
+                    intView(mapped[FACT_ACTOR]), intView(mapped[FACT_RECORDING]), intView(mapped[FACT_CATEGORY]));
+            System.out.println("snapshot engine: mapped " + path + " (ETL version " + etlVersion + ", " + columns.factActor.limit()
+                    + " facts, " + channel.size() / 1024 + " KB) in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            return columns;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the snapshot " + path, e);
+        }
+    }
+
+    /*
+    ETL run version the snapshot was written from.
+     */
+    static long etlVersion(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel, 0, HEADER_FIXED_BYTES).getLong(16);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the snapshot " + path, e);
+        }
+    }
+
+    /*
+    String dictionary read from the mapped section, names are decoded when asked for.
+     */
+    private static class MappedNames implements ColumnarQueries.Names {
+        private final IntBuffer offsets;
+        private final IntBuffer lengths;
+        private final ByteBuffer bytes;
+
+        MappedNames(ByteBuffer section) {
+            int count = section.getInt(0);
+            this.offsets = section.slice(4, 4 * count).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            this.lengths = section.slice(4 + 4 * count, 4 * count).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            this.bytes = section.slice(4 + 8 * count, section.capacity() - 4 - 8 * count);
+        }
+
+        @Override
+        public String get(int code) {
+            int length = lengths.get(code);
+            if (length < 0) {
+                return null;
+            }
+            byte[] utf8 = new byte[length];
+            bytes.get(offsets.get(code), utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public boolean exists(int code) {
+            return lengths.get(code) != NO_ROW;
+        }
+
+        @Override
+        public int size() {
+            return offsets.limit();
+        }
+    }
+
+    /*
+    Decodes every name once, for the small dictionaries the scans compare against.
+     */
+    private static ColumnarQueries.Names cached(ColumnarQueries.Names names) {
+        String[] decoded = new String[names.size()];
+        BitSet exists = new BitSet(decoded.length);
+        for (int i = 0; i < decoded.length; i++) {
+            decoded[i] = names.get(i);
+            if (names.exists(i)) {
+                exists.set(i);
+            }
+        }
+        return ColumnarQueries.Names.of(decoded, exists);
+    }
+
+    private static ByteBuffer strings(ColumnarQueries.Names names) {
+        int count = names.size();
+        byte[][] encoded = new byte[count][];
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            String name = names.get(i);
+            encoded[i] = name == null ? null : name.getBytes(StandardCharsets.UTF_8);
+            total += name == null ? 0 : encoded[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(4 + 8L * count + total)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(count);
+        int offset = 0;
+        for (byte[] name : encoded) {
+            buffer.putInt(offset);
+            offset += name == null ? 0 : name.length;
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(encoded[i] != null ? encoded[i].length : names.exists(i) ? NULL_NAME : NO_ROW);
+        }
+        for (byte[] name : encoded) {
+            if (name != null) {
+                buffer.put(name);
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static ByteBuffer ints(IntBuffer column) {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.multiplyExact(4, column.limit())).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asIntBuffer().put(column.duplicate().clear());
+        return buffer;
+    }
+
+    private static IntBuffer intView(ByteBuffer section) {
+        return section.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    private static ByteBuffer header(long etlVersion, long createdAt, List<Section> sections) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_FIXED_BYTES + sections.size() * SECTION_ENTRY_BYTES + 4).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putInt(FORMAT_VERSION).putInt(sections.size()).putLong(etlVersion).putLong(createdAt);
+        for (Section section : sections) {
+            header.putInt(section.id()).putInt(section.count()).putLong(section.offset()).putLong(section.length())
+                    .putInt(section.crc()).putInt(0);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(header.duplicate().flip());
+        header.putInt((int) crc.getValue());
+        return header.flip();
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IllegalStateException("unexpected end of the snapshot file");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        ByteBuffer source = buffer.duplicate();
+        int start = source.position();
+        while (source.hasRemaining()) {
+            channel.write(source, position + source.position() - start);
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + SECTION_ALIGNMENT - 1) / SECTION_ALIGNMENT * SECTION_ALIGNMENT;
+    }
+}
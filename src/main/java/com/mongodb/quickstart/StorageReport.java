@@ -0,0 +1,95 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+
+import java.util.Date;
+
+import static com.mongodb.client.model.Filters.eq;
+
+/*
+Storage of the Lab_3_Star collections from collStats: documents, average document size, data size (uncompressed BSON),
+storage size (compressed, on disk) and index sizes.
+Every full build records its report under its key type in Etl_Metadata { _id: "storage", int: {...}, objectid: {...} },
+once builds with -Dcreate.keys=objectid and -Dcreate.keys=int were recorded the int key savings are printed.
+Storage sizes right after a build depend on the next checkpoint, data and index sizes are exact.
+ */
+public class StorageReport {
+    static final String METADATA_ID = "storage";
+
+    static void record(MongoDatabase finalDB) {
+        Document report = measure(finalDB);
+        print(SurrogateKeys.KEY_TYPE + " keys", report);
+        EtlMetadata.metadata(finalDB).updateOne(eq("_id", METADATA_ID), Updates.set(SurrogateKeys.KEY_TYPE, report),
+                new UpdateOptions().upsert(true));
+        compare(finalDB);
+    }
+
+    /*
+    Prints the recorded int key savings, -Dcreate.mode=storage.
+     */
+    static void compare(MongoDatabase finalDB) {
+        Document recorded = EtlMetadata.metadata(finalDB).find(eq("_id", METADATA_ID)).first();
+        if (recorded == null || !recorded.containsKey("objectid") || !recorded.containsKey("int")) {
+            System.out.println("storage: build once with -Dcreate.keys=objectid and once with -Dcreate.keys=int to compare the key types");
+            return;
+        }
+        Document objectIds = recorded.get("objectid", Document.class).get("collections", Document.class);
+        Document ints = recorded.get("int", Document.class).get("collections", Document.class);
+        System.out.println("int keys against ObjectId keys:");
+        long[] totals = new long[4];
+        for (String collection : StagedBuild.COLLECTIONS) {
+            Document before = objectIds.get(collection, Document.class);
+            Document after = ints.get(collection, Document.class);
+            if (before == null || after == null) {
+                continue;
+            }
+            System.out.println(String.format("  %-16s avg doc %5d -> %5d bytes, data %s, indexes %s", collection,
+                    number(before, "avg_document_bytes"), number(after, "avg_document_bytes"),
+                    change(number(before, "data_bytes"), number(after, "data_bytes")),
+                    change(number(before, "index_bytes"), number(after, "index_bytes"))));
+            totals[0] += number(before, "data_bytes");
+            totals[1] += number(after, "data_bytes");
+            totals[2] += number(before, "index_bytes");
+            totals[3] += number(after, "index_bytes");
+        }
+        System.out.println(String.format("  %-16s data %s, indexes %s", "total", change(totals[0], totals[1]), change(totals[2], totals[3])));
+    }
+
+    private static Document measure(MongoDatabase finalDB) {
+        Document collections = new Document();
+        for (String collection : StagedBuild.COLLECTIONS) {
+            Document stats = finalDB.runCommand(new Document("collStats", collection));
+            collections.append(collection, new Document("documents", number(stats, "count"))
+                    .append("avg_document_bytes", number(stats, "avgObjSize"))
+                    .append("data_bytes", number(stats, "size"))
+                    .append("storage_bytes", number(stats, "storageSize"))
+                    .append("index_bytes", number(stats, "totalIndexSize"))
+                    .append("indexes", stats.get("indexSizes", new Document())));
+        }
+        return new Document("collections", collections)
+                .append("etl_version", EtlMetadata.currentVersion(finalDB))
+                .append("measured_at", new Date());
+    }
+
+    private static void print(String label, Document report) {
+        System.out.println("storage with " + label + ":");
+        report.get("collections", Document.class).forEach((collection, value) -> {
+            Document stats = (Document) value;
+            System.out.println(String.format("  %-16s %9d docs, avg %5d bytes, data %8d KB, storage %8d KB, indexes %8d KB %s",
+                    collection, number(stats, "documents"), number(stats, "avg_document_bytes"), number(stats, "data_bytes") / 1024,
+                    number(stats, "storage_bytes") / 1024, number(stats, "index_bytes") / 1024, stats.get("indexes", Document.class).toJson()));
+        });
+    }
+
+    private static String change(long before, long after) {
+        return String.format("%d -> %d KB (%+.1f%%)", before / 1024, after / 1024, before == 0 ? 0 : 100.0 * (after - before) / before);
+    }
+
+    private static long number(Document document, String field) {
+        Object value = document.get(field);
+        return value instanceof Number number ? number.longValue() : 0;
+    }
+}
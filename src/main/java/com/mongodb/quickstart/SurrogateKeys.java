@@ -0,0 +1,93 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Field;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.WindowOutputFields;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.bson.conversions.Bson;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Dense int32 surrogate keys for the Lab_3_Star dimensions: every Dim_* row gets _id 1 .. n, so the five foreign keys
+of a fact are 4-byte ints instead of 12-byte ObjectIds, which shrinks Fact_Collection, its foreign key indexes and
+the values every $lookup compares. The Read pipelines join on the dimension _id and work with either key type.
+-Dcreate.keys=objectid keeps ObjectIds, generated by the builders as the driver would on insert so the fact build
+knows every key, to measure the difference with StorageReport.
+ */
+public class SurrogateKeys {
+    // -Dcreate.keys=int (default) | objectid
+    static final String KEY_TYPE = System.getProperty("create.keys", "int");
+    static final boolean INT_KEYS = switch (KEY_TYPE) {
+        case "int" -> true;
+        case "objectid" -> false;
+        default -> throw new IllegalArgumentException("Unknown create.keys: " + KEY_TYPE);
+    };
+    private static final String DOCUMENT_NUMBER = "_document_number";
+
+    /*
+    Key sequence of one dimension. The builders take keys in the order they write rows, IncrementalSync continues the
+    sequence of the live dimension.
+     */
+    static class Sequence {
+        private final AtomicInteger last;
+
+        Sequence() {
+            this(0);
+        }
+
+        private Sequence(int last) {
+            this.last = new AtomicInteger(last);
+        }
+
+        /*
+        Continues after the highest int _id of the dimension.
+         */
+        static Sequence continuing(MongoCollection<Document> dimension) {
+            Document highest = dimension.find(Filters.type("_id", "number")).projection(Projections.include("_id"))
+                    .sort(Sorts.descending("_id")).first();
+            return new Sequence(highest == null ? 0 : highest.get("_id", Number.class).intValue());
+        }
+
+        /*
+        A new dimension row, starting with its key.
+         */
+        Document newEntry() {
+            return new Document("_id", INT_KEYS ? last.incrementAndGet() : new ObjectId());
+        }
+
+        /*
+        The key fields of a row an upsert may insert, the key is only used up by confirm() if the upsert inserted.
+         */
+        Document pendingEntry() {
+            return INT_KEYS ? new Document("_id", last.get() + 1) : new Document();
+        }
+
+        void confirm(Document row) {
+            if (INT_KEYS && Objects.equals(row.get("_id"), last.get() + 1)) {
+                last.incrementAndGet();
+            }
+        }
+    }
+
+    /*
+    Pipeline stages numbering the documents by sortField into an int _id, for the server-side dimension builds.
+    $setWindowFields without a partition sees every document, so the keys are dense like the client-side ones.
+     */
+    static List<Bson> numberBy(String sortField) {
+        if (!INT_KEYS) {
+            return List.of();
+        }
+        return List.of(
+                Aggregates.setWindowFields(null, Sorts.ascending(sortField), WindowOutputFields.documentNumber(DOCUMENT_NUMBER)),
+                Aggregates.set(new Field<>("_id", new Document("$toInt", "$" + DOCUMENT_NUMBER))),
+                Aggregates.unset(DOCUMENT_NUMBER));
+    }
+}
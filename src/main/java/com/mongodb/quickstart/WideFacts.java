@@ -0,0 +1,135 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.mongodb.client.model.Filters.eq;
+
+/*
+Wide fact mode: dimension attributes copied into every Fact_Collection document next to its foreign keys,
+so the Read questions can be answered from Fact_Collection alone, see Read.wideQueries() and WideQueries.
+-Dcreate.wide=true turns it on for the client-side, server-side and incremental builds, -Dcreate.wide.attributes
+picks the attributes (default: the ones the Read queries need). Facts only grow, every other reader keeps
+using the foreign keys.
+The attributes of the live Fact_Collection are recorded in Etl_Metadata { _id: "wide_facts", attributes }.
+ */
+public class WideFacts {
+    static final String METADATA_ID = "wide_facts";
+
+    /*
+    Fact field <- dimension attribute reached through foreignKey. The same value is read from the Lab_3
+    source field the dimension attribute is built from, so no dimension has to be read to fill it.
+     */
+    record Attribute(String field, String dimension, String dimensionField, String foreignKey, String source, String sourceField) {}
+
+    static final Map<String, Attribute> CATALOG = catalog(
+            new Attribute("actor_name", "Dim_Actors", "name", "actor_id", "Video_Actors", "name"),
+            new Attribute("category_name", "Dim_Categories", "name", "category_id", "Video_Recordings", "category"),
+            new Attribute("rating", "Dim_Ratings", "rating", "rating_id", "Video_Recordings", "rating"),
+            new Attribute("director", "Dim_Directors", "director", "director_id", "Video_Recordings", "director"),
+            new Attribute("recording_title", "Dim_Recordings", "title", "recording_id", "Video_Recordings", "title"),
+            new Attribute("recording_duration", "Dim_Recordings", "duration", "recording_id", "Video_Recordings", "duration"),
+            new Attribute("recording_year_released", "Dim_Recordings", "year_released", "recording_id", "Video_Recordings", "year_released"),
+            new Attribute("recording_stock_count", "Dim_Recordings", "stock_count", "recording_id", "Video_Recordings", "stock_count"),
+            new Attribute("recording_price", "Dim_Recordings", "price", "recording_id", "Video_Recordings", "price"));
+
+    static final List<String> QUERY_ATTRIBUTES = List.of("actor_name", "category_name", "recording_stock_count", "recording_price");
+
+    // -Dcreate.wide=true embeds the -Dcreate.wide.attributes (comma separated CATALOG names) in every fact
+    static final List<Attribute> ATTRIBUTES = Boolean.getBoolean("create.wide")
+            ? attributes(Arrays.stream(System.getProperty("create.wide.attributes", String.join(",", QUERY_ATTRIBUTES)).split(","))
+                    .map(String::trim).toList())
+            : List.of();
+
+    static List<Attribute> attributes(List<String> names) {
+        List<Attribute> attributes = new ArrayList<>();
+        for (String name : names) {
+            Attribute attribute = CATALOG.get(name);
+            if (attribute == null) {
+                throw new IllegalArgumentException("Unknown wide fact attribute: " + name + ", expected one of " + CATALOG.keySet());
+            }
+            attributes.add(attribute);
+        }
+        return attributes;
+    }
+
+    /*
+    Adds the attributes to a fact from its Video_Actors row and the Video_Recordings row it references.
+     */
+    static Document embed(Document fact, List<Attribute> attributes, Document videoActor, Document videoRecording) {
+        for (Attribute attribute : attributes) {
+            Document source = attribute.source().equals("Video_Actors") ? videoActor : videoRecording;
+            fact.append(attribute.field(), source.get(attribute.sourceField()));
+        }
+        return fact;
+    }
+
+    /*
+    Video_Recordings fields the attributes are read from, for the projections of the recording lookups.
+     */
+    static List<String> recordingSourceFields(List<Attribute> attributes) {
+        return attributes.stream().filter(attribute -> attribute.source().equals("Video_Recordings"))
+                .map(Attribute::sourceField).distinct().collect(Collectors.toList());
+    }
+
+    /*
+    Index for the category + price filter of the wide query9, when both attributes are embedded, and one index per
+    foreign key of the embedded attributes for the incremental mode's updateMany.
+     */
+    static List<IndexModel> indexes() {
+        List<IndexModel> indexes = new ArrayList<>();
+        List<String> fields = ATTRIBUTES.stream().map(Attribute::field).toList();
+        if (fields.contains("category_name") && fields.contains("recording_price")) {
+            indexes.add(new IndexModel(Indexes.ascending("category_name", "recording_price", "actor_id")));
+        }
+        // the incremental mode copies a changed dimension row into its facts by foreign key, recording_id is always indexed
+        ATTRIBUTES.stream().map(Attribute::foreignKey).distinct().filter(key -> !key.equals("recording_id"))
+                .forEach(key -> indexes.add(new IndexModel(Indexes.ascending(key))));
+        return indexes;
+    }
+
+    /*
+    Records the attributes of the Fact_Collection just swapped in, the replaced ones are kept for rollback.
+     */
+    static void recordSwap(MongoDatabase finalDB) {
+        List<String> previous = embedded(finalDB);
+        EtlMetadata.metadata(finalDB).updateOne(eq("_id", METADATA_ID), Updates.combine(
+                        Updates.set("attributes", ATTRIBUTES.stream().map(Attribute::field).toList()),
+                        Updates.set("previous_attributes", previous)),
+                new UpdateOptions().upsert(true));
+    }
+
+    static void recordRollback(MongoDatabase finalDB) {
+        Document wide = EtlMetadata.metadata(finalDB).find(eq("_id", METADATA_ID)).first();
+        if (wide != null) {
+            EtlMetadata.metadata(finalDB).updateOne(eq("_id", METADATA_ID), Updates.combine(
+                    Updates.set("attributes", wide.getList("previous_attributes", String.class, List.of())),
+                    Updates.set("previous_attributes", wide.getList("attributes", String.class, List.of()))));
+        }
+    }
+
+    /*
+    Names of the attributes embedded in the live Fact_Collection.
+     */
+    static List<String> embedded(MongoDatabase finalDB) {
+        Document wide = EtlMetadata.metadata(finalDB).find(eq("_id", METADATA_ID)).first();
+        return wide == null ? List.of() : wide.getList("attributes", String.class, List.of());
+    }
+
+    private static Map<String, Attribute> catalog(Attribute... attributes) {
+        Map<String, Attribute> catalog = new LinkedHashMap<>();
+        Arrays.stream(attributes).forEach(attribute -> catalog.put(attribute.field(), attribute));
+        return catalog;
+    }
+}
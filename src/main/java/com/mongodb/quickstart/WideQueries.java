@@ -0,0 +1,74 @@
+package com.mongodb.quickstart;
+
+import com.mongodb.client.MongoDatabase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+StarQueries answered by the lookup-free Read.wideQuery pipelines over a wide Fact_Collection.
+A query whose attributes are not embedded in the live Fact_Collection (see WideFacts) is answered by the
+fallback engine, normally the live pipelines.
+ */
+public class WideQueries implements StarQueries {
+    private final MongoDatabase finalDB;
+    private final PipelineQueries pipelines;
+    private final StarQueries fallback;
+
+    WideQueries(MongoDatabase finalDB, StarQueries fallback) {
+        this.finalDB = finalDB;
+        this.pipelines = new PipelineQueries(finalDB);
+        this.fallback = fallback;
+    }
+
+    @Override
+    public Map<String, Integer> query3() {
+        return embedded("category_name") ? pipelines.countsPerCategory(Read.wideQuery3Pipeline()) : fallback.query3();
+    }
+
+    @Override
+    public Map<String, Integer> query4(int minStock) {
+        return embedded("category_name", "recording_stock_count")
+                ? pipelines.countsPerCategory(Read.wideQuery4Pipeline(minStock)) : fallback.query4(minStock);
+    }
+
+    @Override
+    public Map<String, Set<String>> query5() {
+        return embedded("actor_name", "category_name") ? pipelines.categoriesPerActor(Read.wideQuery5Pipeline()) : fallback.query5();
+    }
+
+    @Override
+    public Map<String, Set<String>> query6() {
+        return embedded("actor_name", "category_name") ? pipelines.categoriesPerActor(Read.wideQuery6Pipeline()) : fallback.query6();
+    }
+
+    @Override
+    public Map<String, Set<String>> query7(String excludedCategory) {
+        return embedded("actor_name", "category_name")
+                ? pipelines.categoriesPerActor(Read.wideQuery7Pipeline(excludedCategory)) : fallback.query7(excludedCategory);
+    }
+
+    @Override
+    public Map<String, Set<String>> query8(List<String> requiredCategories) {
+        return embedded("actor_name", "category_name")
+                ? pipelines.categoriesPerActor(Read.wideQuery8Pipeline(requiredCategories)) : fallback.query8(requiredCategories);
+    }
+
+    @Override
+    public int query9(String category, int minPrice) {
+        return embedded("category_name", "recording_price")
+                ? pipelines.totalActors(Read.wideQuery9Pipeline(category, minPrice)) : fallback.query9(category, minPrice);
+    }
+
+    private boolean embedded(String... attributes) {
+        List<String> missing = new ArrayList<>(Arrays.asList(attributes));
+        missing.removeAll(WideFacts.embedded(finalDB));
+        if (!missing.isEmpty()) {
+            System.out.println("Fact_Collection does not embed " + missing + ", using the live joins");
+        }
+        return missing.isEmpty();
+    }
+}